@@ -0,0 +1,66 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Service provider interface to encode objects into and decode objects from
+ * BINARY property values. Each codec has a unique type tag which is written as
+ * the first byte of the binary so the matching codec is chosen when reading
+ * the value.<br>
+ * Codecs can be registered with {@link BinaryCodecs#register(BinaryCodec)} or
+ * via the {@link java.util.ServiceLoader} mechanism.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public interface BinaryCodec {
+	/**
+	 * Gets the unique type tag of this codec. Tags must be in the range of
+	 * 1-127.
+	 * 
+	 * @return the type tag
+	 */
+	byte getTypeTag();
+
+	/**
+	 * Checks whether this codec can encode the specified value.
+	 * 
+	 * @param value the value
+	 * @return true if the value can be encoded
+	 */
+	boolean canEncode(Object value);
+
+	/**
+	 * Encodes the value to the specified stream. The stream must not be closed.
+	 * 
+	 * @param value the value
+	 * @param out the stream to write to
+	 * @throws IOException if an error occurs encoding the value
+	 */
+	void encode(Object value, OutputStream out) throws IOException;
+
+	/**
+	 * Decodes a value from the specified stream. The stream must not be closed.
+	 * 
+	 * @param in the stream to read from
+	 * @return the decoded value
+	 * @throws IOException if an error occurs decoding the value
+	 */
+	Object decode(InputStream in) throws IOException;
+}
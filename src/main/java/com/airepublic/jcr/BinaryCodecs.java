@@ -0,0 +1,118 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the {@link BinaryCodec}s used by {@link JCRHelper} to convert
+ * objects to and from BINARY property values.<br>
+ * Codecs are asked in order of their registration priority whether they can
+ * encode a value. By default the {@link CompactCodec} is preferred and the
+ * {@link JavaSerializationCodec} is used for all other serializable values.
+ * Codecs registered later or found via the {@link ServiceLoader} take
+ * precedence over the built-in codecs.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class BinaryCodecs {
+	private static final Logger LOG = LoggerFactory.getLogger(BinaryCodecs.class);
+	/** First byte of a Java serialization stream written without type tag */
+	static final int LEGACY_SERIALIZATION_TAG = 0xAC;
+	private static final List<BinaryCodec> CODECS = new CopyOnWriteArrayList<BinaryCodec>();
+	private static final BinaryCodec[] CODECS_BY_TAG = new BinaryCodec[128];
+
+	static {
+		register(new JavaSerializationCodec());
+		register(new CompactCodec());
+
+		for (BinaryCodec codec : ServiceLoader.load(BinaryCodec.class)) {
+			register(codec);
+		}
+	}
+
+	private BinaryCodecs() {
+	}
+
+	/**
+	 * Registers the codec with the highest priority. A codec previously
+	 * registered with the same type tag is replaced.
+	 * 
+	 * @param codec the codec
+	 */
+	public static synchronized void register(BinaryCodec codec) {
+		int tag = codec.getTypeTag();
+
+		if (tag < 1) {
+			throw new IllegalArgumentException("Type tag of codec " + codec.getClass().getName() + " must be in the range of 1-127!");
+		}
+
+		BinaryCodec previous = CODECS_BY_TAG[tag];
+
+		if (previous != null) {
+			CODECS.remove(previous);
+			LOG.info("Replacing binary codec " + previous.getClass().getName() + " with " + codec.getClass().getName());
+		}
+
+		CODECS_BY_TAG[tag] = codec;
+		CODECS.add(0, codec);
+	}
+
+	/**
+	 * Gets the codec with the highest priority which can encode the specified
+	 * value.
+	 * 
+	 * @param value the value
+	 * @return the codec or null if no codec can encode the value
+	 */
+	public static BinaryCodec getCodec(Object value) {
+		for (BinaryCodec codec : CODECS) {
+			if (codec.canEncode(value)) {
+				return codec;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Gets the codec registered for the specified type tag.
+	 * 
+	 * @param tag the type tag
+	 * @return the codec or null if no codec is registered for the tag
+	 */
+	public static BinaryCodec getCodec(int tag) {
+		if (tag < 1 || tag >= CODECS_BY_TAG.length) {
+			return null;
+		}
+
+		return CODECS_BY_TAG[tag];
+	}
+
+	/**
+	 * Gets the registered codecs in order of their priority.
+	 * 
+	 * @return the codecs
+	 */
+	public static List<BinaryCodec> getCodecs() {
+		return List.copyOf(CODECS);
+	}
+}
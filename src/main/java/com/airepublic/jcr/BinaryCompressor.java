@@ -0,0 +1,192 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.jcr.Binary;
+import javax.jcr.Session;
+
+/**
+ * Compresses the encoded binaries written by
+ * {@link JCRHelper#createBinary(Session, Object, BinaryCodec)} when enabled by
+ * {@link JCRHelper#setCompressor(BinaryCompressor)}. A compressed binary
+ * starts with a header byte identifying the algorithm followed by the
+ * compressed encoded binary including its codec type tag. Binaries smaller
+ * than <code>minSize</code> or which do not get smaller are stored
+ * uncompressed. Compressed binaries are detected and decompressed by
+ * {@link JCRHelper#createObject(Session, Binary)} regardless of the
+ * configured compressor.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class BinaryCompressor {
+	public static final int DEFAULT_MIN_SIZE = 1024;
+	private static final int BUFFER_SIZE = 8192;
+	private final Algorithm algorithm;
+	private int level = Deflater.DEFAULT_COMPRESSION;
+	private int minSize = DEFAULT_MIN_SIZE;
+
+	/**
+	 * The supported compression algorithms with their header bytes.
+	 */
+	public enum Algorithm {
+		DEFLATE(0xC1),
+		GZIP(0xC2);
+
+		private final int tag;
+
+		private Algorithm(int tag) {
+			this.tag = tag;
+		}
+
+		/**
+		 * @return the header byte of binaries compressed with this algorithm
+		 */
+		public int getTag() {
+			return tag;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param algorithm the compression algorithm
+	 */
+	public BinaryCompressor(Algorithm algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Writes the header byte and the compressed content of the stream. The
+	 * output stream is not closed.
+	 *
+	 * @param in the content to compress
+	 * @param out the stream to write to
+	 * @throws IOException if the content could not be compressed
+	 */
+	void compress(InputStream in, OutputStream out) throws IOException {
+		out.write(algorithm.getTag());
+
+		if (algorithm == Algorithm.GZIP) {
+			LevelGZIPOutputStream compressed = new LevelGZIPOutputStream(out, level);
+
+			try {
+				in.transferTo(compressed);
+				compressed.finish();
+			} finally {
+				// the stream is not closed, so its deflater must be released explicitly
+				compressed.end();
+			}
+		} else {
+			Deflater deflater = new Deflater(level);
+
+			try {
+				DeflaterOutputStream compressed = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+				in.transferTo(compressed);
+				compressed.finish();
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the header byte identifies a compressed binary.
+	 *
+	 * @param tag the header byte
+	 * @return true if the binary is compressed
+	 */
+	static boolean isCompressed(int tag) {
+		return tag == Algorithm.DEFLATE.getTag() || tag == Algorithm.GZIP.getTag();
+	}
+
+	/**
+	 * Creates a stream decompressing the content following the header byte.
+	 *
+	 * @param tag the header byte
+	 * @param in the stream positioned after the header byte
+	 * @return the decompressing stream
+	 * @throws IOException if the stream could not be created
+	 */
+	static InputStream decompress(int tag, InputStream in) throws IOException {
+		if (tag == Algorithm.GZIP.getTag()) {
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		}
+
+		return new InflaterInputStream(in);
+	}
+
+	/**
+	 * @return the compression algorithm
+	 */
+	public Algorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return the compression level
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @param level the compression level from 0 to 9 or -1 for the default level
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	/**
+	 * @return the minimum size in bytes of encoded binaries to compress
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * @param minSize the minimum size in bytes of encoded binaries to compress
+	 */
+	public void setMinSize(int minSize) {
+		this.minSize = minSize;
+	}
+
+	/**
+	 * A GZIP stream with a configurable compression level whose deflater can be
+	 * released without closing the underlying stream.
+	 */
+	private static class LevelGZIPOutputStream extends GZIPOutputStream {
+		private LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+			super(out, BUFFER_SIZE);
+			def.setLevel(level);
+		}
+
+		/**
+		 * Releases the native resources of the deflater.
+		 */
+		private void end() {
+			def.end();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+
+/**
+ * Input stream reading a {@link Binary} in chunks of a fixed size by
+ * {@link Binary#read(byte[], long)}, so only one chunk of the binary is held
+ * in memory. The stream supports {@link #mark(int)} and {@link #reset()} at
+ * any position.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+class BinaryInputStream extends InputStream {
+	private final Binary binary;
+	private final byte[] chunk;
+	private long chunkPosition = 0L;
+	private int chunkLength = 0;
+	private long position = 0L;
+	private long mark = 0L;
+	private boolean eof = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param binary the binary to read
+	 * @param chunkSize the number of bytes read at once
+	 */
+	BinaryInputStream(Binary binary, int chunkSize) {
+		this.binary = binary;
+		chunk = new byte[chunkSize];
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+
+		return chunk[(int) (position++ - chunkPosition)] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		if (!fill()) {
+			return -1;
+		}
+
+		int n = Math.min(len, (int) (chunkPosition + chunkLength - position));
+		System.arraycopy(chunk, (int) (position - chunkPosition), b, off, n);
+		position += n;
+
+		return n;
+	}
+
+	/**
+	 * Reads the chunk containing the current position if necessary.
+	 *
+	 * @return false if the end of the binary has been reached
+	 */
+	private boolean fill() throws IOException {
+		if (position >= chunkPosition && position < chunkPosition + chunkLength) {
+			return true;
+		}
+
+		if (eof && position >= chunkPosition + chunkLength) {
+			return false;
+		}
+
+		try {
+			int n = binary.read(chunk, position);
+
+			if (n <= 0) {
+				eof = true;
+				chunkPosition = position;
+				chunkLength = 0;
+				return false;
+			}
+
+			chunkPosition = position;
+			chunkLength = n;
+			return true;
+		} catch (RepositoryException e) {
+			throw new IOException("Error reading binary at position " + position, e);
+		}
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+
+		try {
+			long skipped = Math.min(n, Math.max(0L, binary.getSize() - position));
+			position += skipped;
+			return skipped;
+		} catch (RepositoryException e) {
+			throw new IOException("Error reading size of binary!", e);
+		}
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.max(0L, chunkPosition + chunkLength - position);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		mark = position;
+	}
+
+	@Override
+	public synchronized void reset() {
+		position = mark;
+	}
+}
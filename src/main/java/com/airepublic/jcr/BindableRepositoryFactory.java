@@ -15,10 +15,13 @@ package com.airepublic.jcr;
 
 
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jcr.Repository;
 import javax.naming.Context;
 import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import javax.naming.spi.InitialContextFactory;
 
 import org.apache.jackrabbit.core.jndi.RegistryHelper;
@@ -27,7 +30,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Utility class for loading and exposing JCR repositories on JNDI.<br>
+ * Utility class for loading and exposing JCR repositories on JNDI. The naming
+ * contexts are cached per initial context factory and provider URL.<br>
  * <br>
  * (c) Copyright 2014 by ai-republic GmbH, Germany
  * 
@@ -39,6 +43,7 @@ public class BindableRepositoryFactory
 
 	private static final String DEFAULT_PROVIDERURL = "localhost";
 	private static final boolean DEFAULT_OVERWRITE = true;
+	private static final Map<String, InitialContext> CONTEXTS = new ConcurrentHashMap<String, InitialContext>();
 
 	private String repositoryName;
 	private String configFile;
@@ -55,10 +60,7 @@ public class BindableRepositoryFactory
 	 */
 	private void register() throws Exception
 	{
-		Hashtable<String, String> env = new Hashtable<String, String>();
-		env.put(Context.INITIAL_CONTEXT_FACTORY, initialContextFactoryClass.getName());
-		env.put(Context.PROVIDER_URL, providerUrl);
-		InitialContext ctx = new InitialContext(env);
+		InitialContext ctx = getContext();
 		// always create instance by using BindableRepositoryFactory
 		RegistryHelper.registerRepository(ctx, repositoryName, configFile, homeDir, overwrite);
 		repository = (Repository) ctx.lookup(repositoryName); 
@@ -72,11 +74,39 @@ public class BindableRepositoryFactory
 	 */
 	public void unregister() throws Exception
 	{
-		Hashtable<String, String> env = new Hashtable<String, String>();
-		env.put(Context.INITIAL_CONTEXT_FACTORY, initialContextFactoryClass.getName());
-		env.put(Context.PROVIDER_URL, providerUrl);
-		InitialContext ctx = new InitialContext(env);
+		InitialContext ctx = getContext();
 		RegistryHelper.unregisterRepository(ctx, repositoryName);
+		repository = null;
+	}
+
+	/**
+	 * Gets the cached naming context for the initial context factory and
+	 * provider URL.
+	 * 
+	 * @return the naming context
+	 * @throws NamingException if the context could not be created
+	 */
+	private InitialContext getContext() throws NamingException
+	{
+		String key = initialContextFactoryClass.getName() + '|' + providerUrl;
+		InitialContext ctx = CONTEXTS.get(key);
+		
+		if (ctx == null)
+		{
+			Hashtable<String, String> env = new Hashtable<String, String>();
+			env.put(Context.INITIAL_CONTEXT_FACTORY, initialContextFactoryClass.getName());
+			env.put(Context.PROVIDER_URL, providerUrl);
+			ctx = new InitialContext(env);
+			InitialContext existing = CONTEXTS.putIfAbsent(key, ctx);
+			
+			if (existing != null)
+			{
+				ctx.close();
+				ctx = existing;
+			}
+		}
+		
+		return ctx;
 	}
 
 	public Repository getRepository() throws Exception {
@@ -0,0 +1,308 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * Compact {@link BinaryCodec} for simple values. It supports <code>null</code>,
+ * strings, primitive wrappers, {@link BigDecimal}, {@link BigInteger},
+ * <code>byte[]</code>, {@link Date}, {@link Calendar}, {@link UUID} and
+ * {@link ArrayList}s, {@link HashSet}s and {@link HashMap}s (including their
+ * linked variants) of those. Each value is written as a single type byte
+ * followed by its data, so no class descriptors are stored as with Java
+ * serialization.<br>
+ * Collections are decoded as {@link ArrayList}, {@link LinkedHashSet} and
+ * {@link LinkedHashMap} preserving the iteration order.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class CompactCodec implements BinaryCodec {
+	public static final byte TYPE_TAG = 0x02;
+	private static final int MAX_DEPTH = 32;
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte FLOAT = 5;
+	private static final byte BOOLEAN = 6;
+	private static final byte SHORT = 7;
+	private static final byte BYTE = 8;
+	private static final byte CHARACTER = 9;
+	private static final byte BIGDECIMAL = 10;
+	private static final byte BIGINTEGER = 11;
+	private static final byte BYTES = 12;
+	private static final byte DATE = 13;
+	private static final byte CALENDAR = 14;
+	private static final byte UUID_VALUE = 15;
+	private static final byte LIST = 16;
+	private static final byte SET = 17;
+	private static final byte MAP = 18;
+
+	@Override
+	public byte getTypeTag() {
+		return TYPE_TAG;
+	}
+
+	@Override
+	public boolean canEncode(Object value) {
+		return canEncode(value, 0);
+	}
+
+	private boolean canEncode(Object value, int depth) {
+		if (depth > MAX_DEPTH) {
+			return false;
+		}
+
+		if (value == null || value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Float || value instanceof Boolean || value instanceof Short || value instanceof Byte || value instanceof Character || value instanceof BigInteger || value instanceof byte[] || value instanceof UUID) {
+			return true;
+		}
+
+		// only plain types without subclass state can be restored
+		if (value.getClass() == BigDecimal.class || value.getClass() == Date.class || value.getClass() == GregorianCalendar.class) {
+			return true;
+		}
+
+		// other collection types would change their class when decoded
+		if (value.getClass() == ArrayList.class || value.getClass() == HashSet.class || value.getClass() == LinkedHashSet.class) {
+			for (Object element : (Collection<?>) value) {
+				if (!canEncode(element, depth + 1)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		if (value.getClass() == HashMap.class || value.getClass() == LinkedHashMap.class) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (!canEncode(entry.getKey(), depth + 1) || !canEncode(entry.getValue(), depth + 1)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		return false;
+	}
+
+	@Override
+	public void encode(Object value, OutputStream out) throws IOException {
+		DataOutputStream dos = new DataOutputStream(out);
+		write(value, dos);
+		dos.flush();
+	}
+
+	@Override
+	public Object decode(InputStream in) throws IOException {
+		return read(new DataInputStream(in));
+	}
+
+	private void write(Object value, DataOutputStream out) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			writeBytes(((String) value).getBytes(StandardCharsets.UTF_8), out);
+		} else if (value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Short) {
+			out.writeByte(SHORT);
+			out.writeShort((Short) value);
+		} else if (value instanceof Byte) {
+			out.writeByte(BYTE);
+			out.writeByte((Byte) value);
+		} else if (value instanceof Character) {
+			out.writeByte(CHARACTER);
+			out.writeChar((Character) value);
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal = (BigDecimal) value;
+			out.writeByte(BIGDECIMAL);
+			out.writeInt(decimal.scale());
+			writeBytes(decimal.unscaledValue().toByteArray(), out);
+		} else if (value instanceof BigInteger) {
+			out.writeByte(BIGINTEGER);
+			writeBytes(((BigInteger) value).toByteArray(), out);
+		} else if (value instanceof byte[]) {
+			out.writeByte(BYTES);
+			writeBytes((byte[]) value, out);
+		} else if (value instanceof Date) {
+			out.writeByte(DATE);
+			out.writeLong(((Date) value).getTime());
+		} else if (value instanceof Calendar) {
+			Calendar cal = (Calendar) value;
+			out.writeByte(CALENDAR);
+			out.writeLong(cal.getTimeInMillis());
+			writeBytes(cal.getTimeZone().getID().getBytes(StandardCharsets.UTF_8), out);
+		} else if (value instanceof UUID) {
+			UUID uuid = (UUID) value;
+			out.writeByte(UUID_VALUE);
+			out.writeLong(uuid.getMostSignificantBits());
+			out.writeLong(uuid.getLeastSignificantBits());
+		} else if (value instanceof List || value instanceof Set) {
+			Collection<?> collection = (Collection<?>) value;
+			out.writeByte(value instanceof List ? LIST : SET);
+			out.writeInt(collection.size());
+
+			for (Object element : collection) {
+				write(element, out);
+			}
+		} else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeByte(MAP);
+			out.writeInt(map.size());
+
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				write(entry.getKey(), out);
+				write(entry.getValue(), out);
+			}
+		} else {
+			throw new IOException("Value of type " + value.getClass().getName() + " is not supported by " + getClass().getSimpleName());
+		}
+	}
+
+	private Object read(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+
+		switch (type) {
+		case NULL:
+			return null;
+		case STRING:
+			return new String(readBytes(in), StandardCharsets.UTF_8);
+		case INTEGER:
+			return in.readInt();
+		case LONG:
+			return in.readLong();
+		case DOUBLE:
+			return in.readDouble();
+		case FLOAT:
+			return in.readFloat();
+		case BOOLEAN:
+			return in.readBoolean();
+		case SHORT:
+			return in.readShort();
+		case BYTE:
+			return in.readByte();
+		case CHARACTER:
+			return in.readChar();
+		case BIGDECIMAL:
+			int scale = in.readInt();
+			return new BigDecimal(new BigInteger(readBytes(in)), scale);
+		case BIGINTEGER:
+			return new BigInteger(readBytes(in));
+		case BYTES:
+			return readBytes(in);
+		case DATE:
+			return new Date(in.readLong());
+		case CALENDAR:
+			long millis = in.readLong();
+			Calendar cal = new GregorianCalendar(TimeZone.getTimeZone(new String(readBytes(in), StandardCharsets.UTF_8)));
+			cal.setTimeInMillis(millis);
+			return cal;
+		case UUID_VALUE:
+			return new UUID(in.readLong(), in.readLong());
+		case LIST: {
+			int size = readSize(in);
+			List<Object> list = new ArrayList<Object>(Math.min(size, 1024));
+
+			for (int i = 0; i < size; i++) {
+				list.add(read(in));
+			}
+
+			return list;
+		}
+		case SET: {
+			int size = readSize(in);
+			Set<Object> set = new LinkedHashSet<Object>();
+
+			for (int i = 0; i < size; i++) {
+				set.add(read(in));
+			}
+
+			return set;
+		}
+		case MAP: {
+			int size = readSize(in);
+			Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+
+			for (int i = 0; i < size; i++) {
+				map.put(read(in), read(in));
+			}
+
+			return map;
+		}
+		default:
+			throw new IOException("Unknown value type " + type + " in compact binary!");
+		}
+	}
+
+	private static void writeBytes(byte[] bytes, DataOutputStream out) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[readSize(in)];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static int readSize(DataInputStream in) throws IOException {
+		int size = in.readInt();
+
+		if (size < 0) {
+			throw new IOException("Invalid length " + size + " in compact binary!");
+		}
+
+		return size;
+	}
+}
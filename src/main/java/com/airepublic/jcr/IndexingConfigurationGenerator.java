@@ -0,0 +1,422 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import javax.jcr.NamespaceRegistry;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.NodeTypeIterator;
+import javax.jcr.nodetype.PropertyDefinition;
+
+import org.apache.jackrabbit.commons.cnd.CompactNodeTypeDefReader;
+import org.apache.jackrabbit.commons.cnd.DefinitionBuilderFactory;
+import org.apache.jackrabbit.commons.cnd.ParseException;
+
+/**
+ * Generates a Jackrabbit indexing configuration from node type definitions,
+ * so properties which are never queried are not indexed. A property is
+ * excluded from the index if
+ * <ul>
+ * <li>it is a BINARY property and binaries are excluded (the default),
+ * <li>it is annotated with both <code>nofulltext</code> and
+ * <code>noqueryorder</code> in the CND or
+ * <li>it has been excluded by {@link #exclude(String, String)}.
+ * </ul>
+ * For each node type with excluded properties an index rule is generated
+ * which indexes all other properties including residual ones. Node types
+ * annotated with <code>noquery</code> get an index rule without properties.
+ * Exclusions are inherited by subtypes defined in the same sources. The node
+ * types can be read from CND files before the repository is started or from
+ * the node types registered in a repository. Node types of the built-in
+ * namespaces are not considered.<br>
+ * The generated configuration is used by a {@link RepositoryConfigBuilder}
+ * with an indexing configuration generator for the configured
+ * <code>cndFile</code>.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class IndexingConfigurationGenerator {
+	private static final Set<String> BUILT_IN_PREFIXES = new HashSet<String>(Arrays.asList("jcr", "nt", "mix", "rep", "sv", "xml", ""));
+	private boolean excludeBinaries = true;
+	private final Map<String, Set<String>> exclusions = new LinkedHashMap<String, Set<String>>();
+
+	/**
+	 * Excludes a property from the index.
+	 *
+	 * @param nodeType the node type declaring or inheriting the property or <code>*</code> for all node types
+	 * @param property the property name
+	 */
+	public void exclude(String nodeType, String property) {
+		exclusions.computeIfAbsent(nodeType, k -> new TreeSet<String>()).add(property);
+	}
+
+	/**
+	 * Generates the indexing configuration for the node types of the
+	 * specified CND files.
+	 *
+	 * @param files the paths of the CND files
+	 * @return the indexing configuration XML
+	 * @throws IOException if a file could not be read
+	 * @throws RepositoryException if a file could not be parsed
+	 */
+	public String generateFromFiles(String... files) throws IOException, RepositoryException {
+		Map<String, String> sources = new LinkedHashMap<String, String>();
+
+		for (String file : files) {
+			sources.put(file, new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8));
+		}
+
+		return generate(sources);
+	}
+
+	/**
+	 * Generates the indexing configuration for the node types of the
+	 * specified CND sources.
+	 *
+	 * @param sources the CND content by system id (e.g. the file name)
+	 * @return the indexing configuration XML
+	 * @throws RepositoryException if a source could not be parsed
+	 */
+	public String generate(Map<String, String> sources) throws RepositoryException {
+		Map<String, TypeInfo> types = new LinkedHashMap<String, TypeInfo>();
+		Map<String, String> namespaces = new LinkedHashMap<String, String>();
+
+		for (Map.Entry<String, String> source : sources.entrySet()) {
+			try {
+				InfoBuilderFactory factory = new InfoBuilderFactory();
+				CompactNodeTypeDefReader<TypeInfo, Map<String, String>> reader = new CompactNodeTypeDefReader<TypeInfo, Map<String, String>>(new StringReader(source.getValue()), source.getKey(), factory);
+
+				for (TypeInfo type : reader.getNodeTypeDefinitions()) {
+					types.put(type.name, type);
+				}
+
+				namespaces.putAll(factory.namespaces);
+			} catch (ParseException e) {
+				throw new RepositoryException("Error parsing CND source: " + source.getKey(), e);
+			}
+		}
+
+		return toXml(types, namespaces);
+	}
+
+	/**
+	 * Generates the indexing configuration for the node types registered in
+	 * the repository of the session.
+	 *
+	 * @param session the session
+	 * @return the indexing configuration XML
+	 * @throws RepositoryException if the node types could not be read
+	 */
+	public String generate(Session session) throws RepositoryException {
+		Map<String, TypeInfo> types = new LinkedHashMap<String, TypeInfo>();
+		Map<String, String> namespaces = new LinkedHashMap<String, String>();
+		NamespaceRegistry registry = session.getWorkspace().getNamespaceRegistry();
+
+		for (String prefix : registry.getPrefixes()) {
+			namespaces.put(prefix, registry.getURI(prefix));
+		}
+
+		NodeTypeIterator it = session.getWorkspace().getNodeTypeManager().getAllNodeTypes();
+
+		while (it.hasNext()) {
+			NodeType nodeType = it.nextNodeType();
+			TypeInfo type = new TypeInfo();
+			type.name = nodeType.getName();
+			type.mixin = nodeType.isMixin();
+			type.queryable = nodeType.isQueryable();
+			type.supertypes.addAll(Arrays.asList(nodeType.getDeclaredSupertypeNames()));
+
+			for (PropertyDefinition p : nodeType.getDeclaredPropertyDefinitions()) {
+				type.properties.add(new PropertyInfo(p.getName(), p.getRequiredType(), p.isFullTextSearchable(), p.isQueryOrderable()));
+			}
+
+			types.put(type.name, type);
+		}
+
+		return toXml(types, namespaces);
+	}
+
+	private String toXml(Map<String, TypeInfo> types, Map<String, String> namespaces) {
+		List<TypeInfo> ruleTypes = new ArrayList<TypeInfo>();
+
+		for (TypeInfo type : types.values()) {
+			if (!type.mixin && !BUILT_IN_PREFIXES.contains(prefixOf(type.name))) {
+				type.excluded = excludedProperties(type, types, new HashSet<String>());
+
+				if (!type.queryable || !type.excluded.isEmpty()) {
+					type.depth = depth(type, types, new HashSet<String>());
+					ruleTypes.add(type);
+				}
+			}
+		}
+
+		// the first matching rule applies, so rules of subtypes must come first
+		ruleTypes.sort((a, b) -> b.depth - a.depth);
+
+		Set<String> prefixes = new TreeSet<String>();
+
+		for (TypeInfo type : ruleTypes) {
+			prefixes.add(prefixOf(type.name));
+		}
+
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\"?>\n");
+		xml.append("<!DOCTYPE configuration SYSTEM \"http://jackrabbit.apache.org/dtd/indexing-configuration-1.2.dtd\">\n");
+		xml.append("<configuration");
+
+		for (String prefix : prefixes) {
+			xml.append(" xmlns:").append(prefix).append("=\"").append(escape(namespaces.get(prefix))).append('"');
+		}
+
+		xml.append(">\n");
+
+		for (TypeInfo type : ruleTypes) {
+			xml.append("\t<index-rule nodeType=\"").append(escape(type.name)).append("\">\n");
+
+			if (type.queryable) {
+				xml.append("\t\t<property isRegexp=\"true\">").append(escape(includePattern(type.excluded))).append("</property>\n");
+			}
+
+			xml.append("\t</index-rule>\n");
+		}
+
+		xml.append("</configuration>\n");
+
+		return xml.toString();
+	}
+
+	private Set<String> excludedProperties(TypeInfo type, Map<String, TypeInfo> types, Set<String> visited) {
+		Set<String> excluded = new TreeSet<String>();
+
+		if (!visited.add(type.name)) {
+			return excluded;
+		}
+
+		for (PropertyInfo p : type.properties) {
+			if (!"*".equals(p.name) && (excludeBinaries && p.type == PropertyType.BINARY || !p.fullTextSearchable && !p.queryOrderable)) {
+				excluded.add(p.name);
+			}
+		}
+
+		excluded.addAll(exclusions.getOrDefault(type.name, new TreeSet<String>()));
+		excluded.addAll(exclusions.getOrDefault("*", new TreeSet<String>()));
+
+		for (String supertype : type.supertypes) {
+			TypeInfo superInfo = types.get(supertype);
+
+			if (superInfo != null) {
+				excluded.addAll(excludedProperties(superInfo, types, visited));
+			}
+		}
+
+		return excluded;
+	}
+
+	private static int depth(TypeInfo type, Map<String, TypeInfo> types, Set<String> visited) {
+		int depth = 0;
+
+		if (visited.add(type.name)) {
+			for (String supertype : type.supertypes) {
+				TypeInfo superInfo = types.get(supertype);
+
+				if (superInfo != null) {
+					depth = Math.max(depth, depth(superInfo, types, visited) + 1);
+				}
+			}
+		}
+
+		return depth;
+	}
+
+	/**
+	 * Creates the pattern matching all property names in any namespace except
+	 * the local names of the excluded properties.
+	 */
+	static String includePattern(Set<String> excluded) {
+		if (excluded.isEmpty()) {
+			return ".*:.*";
+		}
+
+		List<String> localNames = new ArrayList<String>();
+
+		for (String name : excluded) {
+			int index = name.indexOf(':');
+			localNames.add(Pattern.quote(index < 0 ? name : name.substring(index + 1)));
+		}
+
+		return ".*:(?!(?:" + String.join("|", localNames) + ")$).*";
+	}
+
+	private static String prefixOf(String name) {
+		int index = name.indexOf(':');
+		return index < 0 ? "" : name.substring(0, index);
+	}
+
+	private static String escape(String value) {
+		return value == null ? "" : value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+	/**
+	 * @return true if BINARY properties are excluded from the index
+	 */
+	public boolean isExcludeBinaries() {
+		return excludeBinaries;
+	}
+
+	/**
+	 * @param excludeBinaries flag whether BINARY properties are excluded from the index
+	 */
+	public void setExcludeBinaries(boolean excludeBinaries) {
+		this.excludeBinaries = excludeBinaries;
+	}
+
+	/**
+	 * The indexing relevant part of a node type definition.
+	 */
+	private static class TypeInfo {
+		private String name;
+		private boolean mixin;
+		private boolean queryable = true;
+		private final List<String> supertypes = new ArrayList<String>();
+		private final List<PropertyInfo> properties = new ArrayList<PropertyInfo>();
+		private Set<String> excluded;
+		private int depth;
+	}
+
+	/**
+	 * The indexing relevant part of a property definition.
+	 */
+	private static class PropertyInfo {
+		private final String name;
+		private final int type;
+		private final boolean fullTextSearchable;
+		private final boolean queryOrderable;
+
+		private PropertyInfo(String name, int type, boolean fullTextSearchable, boolean queryOrderable) {
+			this.name = name;
+			this.type = type;
+			this.fullTextSearchable = fullTextSearchable;
+			this.queryOrderable = queryOrderable;
+		}
+	}
+
+	/**
+	 * Builder factory for the CND reader creating {@link TypeInfo}s without
+	 * access to a repository.
+	 */
+	private static class InfoBuilderFactory extends DefinitionBuilderFactory<TypeInfo, Map<String, String>> {
+		private Map<String, String> namespaces = new LinkedHashMap<String, String>();
+
+		@Override
+		public AbstractNodeTypeDefinitionBuilder<TypeInfo> newNodeTypeDefinitionBuilder() {
+			return new AbstractNodeTypeDefinitionBuilder<TypeInfo>() {
+				private final TypeInfo type = new TypeInfo();
+
+				@Override
+				public void addSupertype(String name) {
+					type.supertypes.add(name);
+				}
+
+				@Override
+				public void setPrimaryItemName(String name) {
+				}
+
+				@Override
+				public AbstractPropertyDefinitionBuilder<TypeInfo> newPropertyDefinitionBuilder() {
+					return new AbstractPropertyDefinitionBuilder<TypeInfo>() {
+						@Override
+						public void addValueConstraint(String constraint) {
+						}
+
+						@Override
+						public void addDefaultValues(String value) {
+						}
+
+						@Override
+						public void setDeclaringNodeType(String name) {
+						}
+
+						@Override
+						public void build() {
+							type.properties.add(new PropertyInfo(name, requiredType, fullTextSearchable, queryOrderable));
+						}
+					};
+				}
+
+				@Override
+				public AbstractNodeDefinitionBuilder<TypeInfo> newNodeDefinitionBuilder() {
+					return new AbstractNodeDefinitionBuilder<TypeInfo>() {
+						@Override
+						public void setDefaultPrimaryType(String name) {
+						}
+
+						@Override
+						public void addRequiredPrimaryType(String name) {
+						}
+
+						@Override
+						public void setDeclaringNodeType(String name) {
+						}
+
+						@Override
+						public void build() {
+						}
+					};
+				}
+
+				@Override
+				public TypeInfo build() {
+					type.name = name;
+					type.mixin = isMixin;
+					type.queryable = queryable;
+					return type;
+				}
+			};
+		}
+
+		@Override
+		public void setNamespaceMapping(Map<String, String> namespaces) {
+			this.namespaces = namespaces;
+		}
+
+		@Override
+		public Map<String, String> getNamespaceMapping() {
+			return namespaces;
+		}
+
+		@Override
+		public void setNamespace(String prefix, String uri) {
+			namespaces.put(prefix, uri);
+		}
+	}
+}
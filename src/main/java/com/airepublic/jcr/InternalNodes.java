@@ -0,0 +1,187 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.ItemExistsException;
+import javax.jcr.NamespaceException;
+import javax.jcr.NamespaceRegistry;
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.NodeDefinitionTemplate;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.jcr.nodetype.NodeTypeTemplate;
+import javax.jcr.nodetype.PropertyDefinitionTemplate;
+
+/**
+ * Creates the nodes below {@value JCRHelper#INTERNAL_PATH} containing the data
+ * used internally by this library. The internal node and its children are of
+ * the type {@value JCRHelper#INTERNAL_NODE_TYPE}, which unlike
+ * <code>nt:unstructured</code> does not allow same-name siblings. If two
+ * sessions add the same internal node concurrently, the save of the later one
+ * therefore fails with an {@link ItemExistsException} or
+ * {@link InvalidItemStateException}. {@link #save(Session, SessionCallback)}
+ * then discards the changes and runs the callback again, which finds the node
+ * of the other session.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+final class InternalNodes {
+	private static final int MAX_ATTEMPTS = 5;
+
+	private InternalNodes() {
+	}
+
+	/**
+	 * Gets the internal node. The namespace {@value JCRHelper#NAMESPACE_URI}
+	 * and the node type {@value JCRHelper#INTERNAL_NODE_TYPE} are registered
+	 * and the node is added with the session if they do not exist yet.
+	 *
+	 * @param session the session
+	 * @return the internal node
+	 * @throws RepositoryException if the namespace or node type could not be registered or the node could not be added
+	 */
+	static Node getOrAdd(Session session) throws RepositoryException {
+		NamespaceRegistry registry = session.getWorkspace().getNamespaceRegistry();
+
+		if (!isNamespaceRegistered(registry)) {
+			try {
+				registry.registerNamespace(JCRHelper.NAMESPACE_PREFIX, JCRHelper.NAMESPACE_URI);
+			} catch (NamespaceException e) {
+				// the namespace might have been registered concurrently
+				if (!isNamespaceRegistered(registry)) {
+					throw e;
+				}
+			}
+		}
+
+		registerNodeType(session.getWorkspace().getNodeTypeManager());
+
+		return getOrAdd(session.getNode("/jcr:system"), JCRHelper.INTERNAL_NODE, JCRHelper.INTERNAL_NODE_TYPE);
+	}
+
+	/**
+	 * Gets the internal node.
+	 *
+	 * @param session the session
+	 * @return the internal node or null if it has not been created yet
+	 * @throws RepositoryException if access to the repository failed
+	 */
+	static Node get(Session session) throws RepositoryException {
+		if (isNamespaceRegistered(session.getWorkspace().getNamespaceRegistry()) && session.nodeExists(JCRHelper.INTERNAL_PATH)) {
+			return session.getNode(JCRHelper.INTERNAL_PATH);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Gets the child node with the specified name and adds it with the session
+	 * if it does not exist yet.
+	 *
+	 * @param parent the parent node
+	 * @param name the name of the child node
+	 * @param primaryType the primary type of the child node
+	 * @return the child node
+	 * @throws RepositoryException if the node could not be added
+	 */
+	static Node getOrAdd(Node parent, String name, String primaryType) throws RepositoryException {
+		if (parent.hasNode(name)) {
+			return parent.getNode(name);
+		}
+
+		return parent.addNode(name, primaryType);
+	}
+
+	/**
+	 * Runs the callback adding or changing internal nodes and saves the
+	 * session. If the save fails because another session added the same nodes
+	 * concurrently, the changes are discarded and the callback is run again.
+	 * The session must not have any other pending changes.
+	 *
+	 * @param <T> the type of the result
+	 * @param session the session
+	 * @param callback the callback adding or changing the internal nodes
+	 * @return the result of the callback
+	 * @throws RepositoryException if the nodes could not be saved
+	 */
+	static <T> T save(Session session, SessionCallback<T> callback) throws RepositoryException {
+		for (int attempt = 1;; attempt++) {
+			T result = callback.doInSession(session);
+
+			try {
+				session.save();
+				return result;
+			} catch (ItemExistsException | InvalidItemStateException e) {
+				session.refresh(false);
+
+				if (attempt >= MAX_ATTEMPTS) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Registers the node type {@value JCRHelper#INTERNAL_NODE_TYPE} if it is
+	 * not registered yet. It allows any properties and child nodes like
+	 * <code>nt:unstructured</code> but no same-name siblings.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void registerNodeType(NodeTypeManager manager) throws RepositoryException {
+		if (manager.hasNodeType(JCRHelper.INTERNAL_NODE_TYPE)) {
+			return;
+		}
+
+		NodeTypeTemplate type = manager.createNodeTypeTemplate();
+		type.setName(JCRHelper.INTERNAL_NODE_TYPE);
+		type.setDeclaredSuperTypeNames(new String[] { "nt:base" });
+
+		for (boolean multiple : new boolean[] { false, true }) {
+			PropertyDefinitionTemplate property = manager.createPropertyDefinitionTemplate();
+			property.setName("*");
+			property.setRequiredType(PropertyType.UNDEFINED);
+			property.setMultiple(multiple);
+			type.getPropertyDefinitionTemplates().add(property);
+		}
+
+		NodeDefinitionTemplate child = manager.createNodeDefinitionTemplate();
+		child.setName("*");
+		child.setRequiredPrimaryTypeNames(new String[] { "nt:base" });
+		child.setDefaultPrimaryTypeName(JCRHelper.INTERNAL_NODE_TYPE);
+		child.setSameNameSiblings(false);
+		type.getNodeDefinitionTemplates().add(child);
+
+		try {
+			manager.registerNodeType(type, false);
+		} catch (RepositoryException e) {
+			// the node type might have been registered concurrently
+			if (!manager.hasNodeType(JCRHelper.INTERNAL_NODE_TYPE)) {
+				throw e;
+			}
+		}
+	}
+
+	private static boolean isNamespaceRegistered(NamespaceRegistry registry) throws RepositoryException {
+		try {
+			return JCRHelper.NAMESPACE_URI.equals(registry.getURI(JCRHelper.NAMESPACE_PREFIX));
+		} catch (NamespaceException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,478 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.UnaryOperator;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.apache.jackrabbit.value.BinaryImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache for objects decoded from BINARY properties by
+ * {@link JCRHelper#getProperty(Node, String)}. Entries are keyed by node
+ * identifier, property name and a change marker. Without an observation
+ * session only binaries of checked-in versionable nodes are cached, with the
+ * identifier of the base version as change marker, because the
+ * <code>jcr:lastModified</code> date is not updated by Jackrabbit when a
+ * property is set. If an observation session is supplied, entries are
+ * invalidated by observation events, so binaries of all nodes are cached and
+ * the <code>jcr:lastModified</code> date is only used as additional change
+ * marker.<br>
+ * Callers never share a mutable cached instance:
+ * <ul>
+ * <li>Instances of immutable types are cached and shared between callers.
+ * Built-in immutable types are strings, numbers, {@link UUID}s, enums and the
+ * <code>java.time</code> types. Further types can be registered with
+ * {@link #addImmutableType(Class)}.</li>
+ * <li>Instances of types registered with {@link #addCopier(Class, UnaryOperator)}
+ * are cached and every caller gets a copy created by the copier.</li>
+ * <li>Of all other values only the encoded binary is cached and it is
+ * <b>decoded again on every read</b>. This saves the repository access but not
+ * the deserialization, so a hit costs almost as much CPU and allocation as a
+ * miss. Register the types of frequently read objects, e.g. the
+ * <code>function</code> and <code>content</code> objects of workflow steps and
+ * artifacts, as immutable or with a copier to avoid that.</li>
+ * </ul>
+ * The cache is bounded by the encoded size of the cached binaries.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class JCRBinaryCache implements EventListener, AutoCloseable {
+	private static final Logger LOG = LoggerFactory.getLogger(JCRBinaryCache.class);
+	private static final int EVENT_TYPES = Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED | Event.NODE_REMOVED;
+	private final Session observationSession;
+	private final boolean ownsSession;
+	private final long maxWeight;
+	private static final Set<Class<?>> DEFAULT_IMMUTABLE_TYPES = Set.of(String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, BigDecimal.class, BigInteger.class, UUID.class);
+	private final Set<Class<?>> immutableTypes = new CopyOnWriteArraySet<Class<?>>();
+	private final Map<Class<?>, UnaryOperator<Object>> copiers = new ConcurrentHashMap<Class<?>, UnaryOperator<Object>>();
+	private final Map<String, CachedObject> entries = new LinkedHashMap<String, CachedObject>(16, 0.75f, true);
+	private final Map<String, Set<String>> keysByIdentifier = new HashMap<String, Set<String>>();
+	private long weight = 0L;
+	private long generation = 0L;
+	private long hitCount = 0L;
+	private long missCount = 0L;
+	private long evictionCount = 0L;
+	private long uncacheableCount = 0L;
+
+	/**
+	 * Constructor for a cache which only caches binaries of nodes with a change
+	 * marker.
+	 *
+	 * @param maxWeight the maximum encoded size in bytes of all cached binaries
+	 */
+	public JCRBinaryCache(long maxWeight) {
+		this.observationSession = null;
+		this.ownsSession = false;
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * Constructor for a cache which is invalidated by observation events.
+	 *
+	 * @param observationSession the session used to register the event listener
+	 * @param maxWeight the maximum encoded size in bytes of all cached binaries
+	 * @throws RepositoryException if the event listener could not be registered
+	 */
+	public JCRBinaryCache(Session observationSession, long maxWeight) throws RepositoryException {
+		this(observationSession, maxWeight, false);
+	}
+
+	/**
+	 * Constructor for a cache which is invalidated by observation events.
+	 *
+	 * @param observationSession the session used to register the event listener
+	 * @param maxWeight the maximum encoded size in bytes of all cached binaries
+	 * @param ownsSession flag whether the session is logged out when the cache is closed
+	 * @throws RepositoryException if the event listener could not be registered
+	 */
+	JCRBinaryCache(Session observationSession, long maxWeight, boolean ownsSession) throws RepositoryException {
+		this.observationSession = observationSession;
+		this.ownsSession = ownsSession;
+		this.maxWeight = maxWeight;
+		observationSession.getWorkspace().getObservationManager().addEventListener(this, EVENT_TYPES, "/", true, null, null, false);
+	}
+
+	/**
+	 * Registers a type whose instances are immutable and can therefore be
+	 * shared between callers.
+	 *
+	 * @param type the immutable type
+	 */
+	public void addImmutableType(Class<?> type) {
+		immutableTypes.add(type);
+	}
+
+	/**
+	 * Registers a function which creates a copy of instances of the specified
+	 * type. Such instances are cached and each caller gets its own copy, which
+	 * is usually much cheaper than decoding the binary again. The copy must not
+	 * share any mutable state with the original.
+	 *
+	 * @param <T> the type
+	 * @param type the exact type of the decoded objects
+	 * @param copier the function creating a copy
+	 */
+	public <T> void addCopier(Class<T> type, UnaryOperator<T> copier) {
+		copiers.put(type, value -> copier.apply(type.cast(value)));
+	}
+
+	/**
+	 * Gets the property with the specified name from the specified node like
+	 * {@link JCRHelper#getProperty(Node, String)} using the cache for objects
+	 * decoded from BINARY properties.
+	 *
+	 * @param node the node
+	 * @param name the property name
+	 * @return the value
+	 * @throws RepositoryException if access to the repository or node failed
+	 */
+	public Comparable<?> getProperty(Node node, String name) throws RepositoryException {
+		Property p = node.getProperty(name);
+
+		if (p.getType() != PropertyType.BINARY || p.isModified() || p.isNew() || node.isModified()) {
+			return JCRHelper.getProperty(node, name);
+		}
+
+		String marker = getChangeMarker(node, observationSession != null);
+
+		if (marker == null && observationSession == null) {
+			return JCRHelper.getProperty(node, name);
+		}
+
+		String identifier = node.getIdentifier();
+		String key = identifier + '\n' + name + '\n' + (marker == null ? "" : marker);
+		CachedObject cached;
+		long readGeneration;
+
+		synchronized (this) {
+			cached = entries.get(key);
+
+			if (cached != null) {
+				hitCount++;
+			} else {
+				missCount++;
+			}
+
+			readGeneration = generation;
+		}
+
+		if (cached != null) {
+			// mutable objects are copied or decoded from the cached binary, so each caller gets its own instance
+			if (cached.copier != null) {
+				return (Comparable<?>) cached.copier.apply(cached.value);
+			}
+
+			return cached.encoded == null ? cached.value : decode(node, name, cached.encoded);
+		}
+
+		if (p.getLength() > maxWeight) {
+			synchronized (this) {
+				uncacheableCount++;
+			}
+
+			return JCRHelper.getProperty(node, name);
+		}
+
+		long start = JCRMetrics.start();
+		byte[] encoded = read(node, name, p);
+		Comparable<?> value = decode(node, name, encoded);
+		JCRMetrics.getInstance().recordPropertyGet(PropertyType.BINARY, start);
+		long size = encoded.length;
+		UnaryOperator<Object> copier = value == null ? null : copiers.get(value.getClass());
+		CachedObject object;
+
+		if (isImmutable(value)) {
+			object = new CachedObject(value, null, null, size);
+		} else if (copier != null) {
+			// the decoded instance is returned to the caller, so the cache keeps its own copy
+			object = new CachedObject((Comparable<?>) copier.apply(value), null, copier, size);
+		} else {
+			object = new CachedObject(null, encoded, null, size);
+		}
+
+		synchronized (this) {
+			// do not cache values which might have been invalidated while reading
+			if (readGeneration == generation && size <= maxWeight) {
+				CachedObject previous = entries.put(key, object);
+
+				if (previous != null) {
+					weight -= previous.weight;
+				}
+
+				weight += size;
+				keysByIdentifier.computeIfAbsent(identifier, id -> new HashSet<String>()).add(key);
+				evict();
+			}
+		}
+
+		return value;
+	}
+
+	/**
+	 * Reads the encoded binary of the property.
+	 *
+	 * @param node the node
+	 * @param name the property name
+	 * @param p the property
+	 * @return the encoded binary
+	 * @throws RepositoryException if the binary could not be read
+	 */
+	private static byte[] read(Node node, String name, Property p) throws RepositoryException {
+		Binary binary = p.getBinary();
+
+		try (InputStream in = binary.getStream()) {
+			return in.readAllBytes();
+		} catch (IOException e) {
+			throw new RepositoryException("Error reading binary property '" + name + "' from node: " + node, e);
+		} finally {
+			binary.dispose();
+		}
+	}
+
+	/**
+	 * Decodes a new object from the cached encoded binary of the property.
+	 *
+	 * @param node the node
+	 * @param name the property name
+	 * @param encoded the encoded binary
+	 * @return the decoded object
+	 * @throws RepositoryException if the binary could not be decoded
+	 */
+	private static Comparable<?> decode(Node node, String name, byte[] encoded) throws RepositoryException {
+		try {
+			return (Comparable<?>) JCRHelper.createObject(node.getSession(), new BinaryImpl(encoded));
+		} catch (IOException e) {
+			throw new RepositoryException("Error creating object from binary property '" + name + "' from node: " + node, e);
+		}
+	}
+
+	/**
+	 * Gets the marker which changes whenever the node is modified.
+	 *
+	 * @param node the node
+	 * @param observed flag whether the cache is invalidated by observation events
+	 * @return the marker or null if the node has no change marker
+	 * @throws RepositoryException if access to the node failed
+	 */
+	private static String getChangeMarker(Node node, boolean observed) throws RepositoryException {
+		// jcr:lastModified is not updated on every modification, so it is only reliable together with observation
+		if (observed && node.hasProperty("jcr:lastModified")) {
+			return Long.toString(node.getProperty("jcr:lastModified").getDate().getTimeInMillis());
+		}
+
+		// a checked-in node cannot be modified without creating a new base version
+		if (node.isNodeType("mix:versionable") && !node.isCheckedOut()) {
+			return node.getProperty("jcr:baseVersion").getString();
+		}
+
+		return null;
+	}
+
+	private boolean isImmutable(Object value) {
+		return isDefaultImmutable(value) || value != null && immutableTypes.contains(value.getClass());
+	}
+
+	/**
+	 * Checks whether the value is an instance of a built-in immutable type.
+	 *
+	 * @param value the value
+	 * @return true if the value is a string, number, {@link UUID}, enum or <code>java.time</code> type
+	 */
+	static boolean isDefaultImmutable(Object value) {
+		return value != null && (DEFAULT_IMMUTABLE_TYPES.contains(value.getClass()) || value instanceof Enum || value.getClass().getName().startsWith("java.time."));
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, CachedObject>> it = entries.entrySet().iterator();
+
+		while (weight > maxWeight && it.hasNext()) {
+			Map.Entry<String, CachedObject> eldest = it.next();
+			it.remove();
+			weight -= eldest.getValue().weight;
+			evictionCount++;
+			unindex(eldest.getKey());
+		}
+	}
+
+	private void unindex(String key) {
+		String identifier = key.substring(0, key.indexOf('\n'));
+		Set<String> keys = keysByIdentifier.get(identifier);
+
+		if (keys != null) {
+			keys.remove(key);
+
+			if (keys.isEmpty()) {
+				keysByIdentifier.remove(identifier);
+			}
+		}
+	}
+
+	/**
+	 * Removes all cached objects of the node with the specified identifier.
+	 *
+	 * @param identifier the node identifier
+	 */
+	public synchronized void invalidate(String identifier) {
+		generation++;
+		Set<String> keys = keysByIdentifier.remove(identifier);
+
+		if (keys != null) {
+			for (String key : keys) {
+				CachedObject cached = entries.remove(key);
+
+				if (cached != null) {
+					weight -= cached.weight;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all cached objects.
+	 */
+	public synchronized void invalidateAll() {
+		generation++;
+		entries.clear();
+		keysByIdentifier.clear();
+		weight = 0L;
+	}
+
+	@Override
+	public void onEvent(EventIterator events) {
+		while (events.hasNext()) {
+			Event event = events.nextEvent();
+
+			try {
+				invalidate(event.getIdentifier());
+			} catch (RepositoryException e) {
+				LOG.warn("Error processing event - invalidating all cached objects!", e);
+				invalidateAll();
+			}
+		}
+	}
+
+	/**
+	 * Unregisters the event listener and clears the cache.
+	 */
+	@Override
+	public void close() {
+		if (observationSession != null) {
+			try {
+				observationSession.getWorkspace().getObservationManager().removeEventListener(this);
+			} catch (RepositoryException e) {
+				LOG.warn("Error removing event listener of binary cache!", e);
+			}
+
+			if (ownsSession) {
+				observationSession.logout();
+			}
+		}
+
+		invalidateAll();
+	}
+
+	/**
+	 * @return the number of cached objects
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the encoded size in bytes of all cached binaries
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return the maximum encoded size in bytes of all cached binaries
+	 */
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	/**
+	 * @return the number of cache hits
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of cache misses
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of objects evicted because the cache was full
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return the number of binaries which were not cached because they are larger than the maximum weight
+	 */
+	public synchronized long getUncacheableCount() {
+		return uncacheableCount;
+	}
+
+	/**
+	 * A cached immutable object, a mutable object with its copier or the
+	 * encoded binary of a mutable object with its weight.
+	 */
+	private static class CachedObject {
+		private final Comparable<?> value;
+		private final byte[] encoded;
+		private final UnaryOperator<Object> copier;
+		private final long weight;
+
+		private CachedObject(Comparable<?> value, byte[] encoded, UnaryOperator<Object> copier, long weight) {
+			this.value = value;
+			this.encoded = encoded;
+			this.copier = copier;
+			this.weight = weight;
+		}
+	}
+}
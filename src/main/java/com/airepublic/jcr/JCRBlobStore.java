@@ -0,0 +1,316 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content-addressed store deduplicating the encoded binaries written by
+ * {@link JCRHelper#createBinary(Session, Object, BinaryCodec)}. When enabled
+ * by {@link JCRHelper#setBlobStore(JCRBlobStore)}, each encoded binary of at
+ * least <code>minSize</code> bytes is stored once in a blob node named by the
+ * SHA-256 hash of its content below the node <code>rootName</code> of the
+ * internal node {@value JCRHelper#INTERNAL_PATH} of this library, so the blobs
+ * do not appear in the content of the applications. The property only holds a short BINARY reference starting with
+ * the type tag {@value #REFERENCE_TAG}, which is resolved transparently by
+ * {@link JCRHelper#getProperty(Node, String)}. Blob nodes are added with the
+ * session of the property and saved with it.<br>
+ * The root node and the 256 fan-out nodes are created by
+ * {@link #initialize(Session)}, which {@link JCRRepository} calls on startup
+ * if a blob store is enabled. Otherwise they are added by the first sessions
+ * storing blobs, and if two sessions add the same fan-out node concurrently
+ * the save of the later one fails. The fan-out nodes allow same-name
+ * siblings, so a blob stored concurrently by two sessions is kept twice until
+ * the next garbage collection.<br>
+ * Blobs which are no longer referenced by any property in the workspace,
+ * including the version storage, are removed by
+ * {@link #collectGarbage(Session)}. The garbage collection should run while
+ * no deduplicated binaries are written, since a blob which is referenced
+ * again during the collection might otherwise be removed.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class JCRBlobStore {
+	private static final Logger LOG = LoggerFactory.getLogger(JCRBlobStore.class);
+	public static final String DEFAULT_ROOT_NAME = JCRHelper.NAMESPACE_PREFIX + ":blobs";
+	public static final int DEFAULT_MIN_SIZE = 4096;
+	/** the type tag of binaries referencing a blob */
+	public static final int REFERENCE_TAG = 0xD0;
+	private static final String DATA_PROPERTY = "data";
+	private static final String SIZE_PROPERTY = "size";
+	private static final int MAX_REFERENCE_LENGTH = 512;
+	private final String rootName;
+	private int minSize = DEFAULT_MIN_SIZE;
+
+	/**
+	 * Constructor storing the blobs below the node {@value #DEFAULT_ROOT_NAME}.
+	 */
+	public JCRBlobStore() {
+		this(DEFAULT_ROOT_NAME);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param rootName the name of the node below the internal node containing the blobs
+	 */
+	public JCRBlobStore(String rootName) {
+		this.rootName = rootName;
+	}
+
+	/**
+	 * Creates the root node and all fan-out nodes of the blobs if they do not
+	 * exist yet and saves the session. A concurrent initialization by another
+	 * session is retried. The session must not have pending changes.
+	 *
+	 * @param session the session
+	 * @throws RepositoryException if the nodes could not be created
+	 */
+	public void initialize(Session session) throws RepositoryException {
+		if (session.hasPendingChanges()) {
+			throw new RepositoryException("Blob store cannot be initialized with a session with pending changes!");
+		}
+
+		InternalNodes.save(session, s -> {
+			Node root = InternalNodes.getOrAdd(InternalNodes.getOrAdd(s), rootName, JCRHelper.INTERNAL_NODE_TYPE);
+
+			for (int i = 0; i < 256; i++) {
+				InternalNodes.getOrAdd(root, fanOutName(i), "nt:unstructured");
+			}
+
+			return null;
+		});
+	}
+
+	private static String fanOutName(int i) {
+		return new String(new char[] { Character.forDigit(i >> 4, 16), Character.forDigit(i & 0xF, 16) });
+	}
+
+	/**
+	 * Stores the encoded binary as blob if it is not stored yet and creates
+	 * the binary referencing it.
+	 *
+	 * @param session the session
+	 * @param hash the SHA-256 hash of the encoded binary
+	 * @param buffer the encoded binary
+	 * @return the reference binary
+	 * @throws RepositoryException if the blob could not be stored
+	 * @throws IOException if the encoded binary could not be read
+	 */
+	Binary store(Session session, String hash, SpoolingBuffer buffer) throws RepositoryException, IOException {
+		String reference = rootName + '/' + hash;
+
+		if (find(session, rootName, hash) == null) {
+			Node root = InternalNodes.getOrAdd(InternalNodes.getOrAdd(session), rootName, JCRHelper.INTERNAL_NODE_TYPE);
+			// the fan-out nodes allow same-name siblings, so a blob stored concurrently does not fail the save
+			Node fanOut = InternalNodes.getOrAdd(root, hash.substring(0, 2), "nt:unstructured");
+			Node blob = fanOut.addNode(hash, "nt:unstructured");
+			blob.setProperty(DATA_PROPERTY, session.getValueFactory().createBinary(buffer.toInputStream()));
+			blob.setProperty(SIZE_PROPERTY, buffer.size());
+		}
+
+		byte[] bytes = reference.getBytes(StandardCharsets.UTF_8);
+		byte[] content = new byte[bytes.length + 1];
+		content[0] = (byte) REFERENCE_TAG;
+		System.arraycopy(bytes, 0, content, 1, bytes.length);
+
+		return session.getValueFactory().createBinary(new ByteArrayInputStream(content));
+	}
+
+	/**
+	 * Gets the content of the referenced blob.
+	 *
+	 * @param session the session
+	 * @param reference the reference without type tag
+	 * @return the encoded binary of the blob
+	 * @throws RepositoryException if the blob does not exist or could not be read
+	 */
+	static Binary resolve(Session session, String reference) throws RepositoryException {
+		int index = reference.indexOf('/');
+		Node blob = index < 0 ? null : find(session, reference.substring(0, index), reference.substring(index + 1));
+
+		if (blob == null) {
+			throw new PathNotFoundException("Deduplicated blob not found: " + reference);
+		}
+
+		return blob.getProperty(DATA_PROPERTY).getBinary();
+	}
+
+	/**
+	 * Finds the blob with the specified hash. Same-name siblings of a blob
+	 * hold the same content, so the first one is returned.
+	 */
+	private static Node find(Session session, String rootName, String hash) throws RepositoryException {
+		Node internal = InternalNodes.get(session);
+		String path = rootName + '/' + hash.substring(0, 2) + '/' + hash;
+
+		return internal != null && internal.hasNode(path) ? internal.getNode(path) : null;
+	}
+
+	/**
+	 * Removes all blobs which are not referenced by any BINARY property of the
+	 * workspace of the session and saves the session.
+	 *
+	 * @param session the session
+	 * @return the number of removed blobs
+	 * @throws RepositoryException if the workspace could not be traversed or the blobs could not be removed
+	 */
+	public int collectGarbage(Session session) throws RepositoryException {
+		Set<String> referenced = new HashSet<String>();
+
+		// mark
+		try (Stream<Node> nodes = new JCRTraversal().stream(session.getRootNode())) {
+			nodes.forEach(node -> {
+				try {
+					if (!node.getPath().startsWith(JCRHelper.INTERNAL_PATH)) {
+						mark(node, referenced);
+					}
+				} catch (RepositoryException e) {
+					throw new IllegalStateException("Error reading blob references of node: " + node, e);
+				}
+			});
+		} catch (IllegalStateException e) {
+			if (e.getCause() instanceof RepositoryException) {
+				throw (RepositoryException) e.getCause();
+			}
+
+			throw e;
+		}
+
+		// sweep
+		int removed = 0;
+
+		Node internal = InternalNodes.get(session);
+
+		if (internal != null && internal.hasNode(rootName)) {
+			NodeIterator fanOuts = internal.getNode(rootName).getNodes();
+
+			while (fanOuts.hasNext()) {
+				Node fanOut = fanOuts.nextNode();
+				NodeIterator blobs = fanOut.getNodes();
+
+				while (blobs.hasNext()) {
+					Node blob = blobs.nextNode();
+
+					// duplicates of concurrently added blobs are never resolved
+					if (!referenced.contains(blob.getName()) || blob.getIndex() > 1) {
+						blob.remove();
+						removed++;
+					}
+				}
+			}
+		}
+
+		JCRHelper.save(session);
+		LOG.info("Removed " + removed + " unreferenced blobs - " + referenced.size() + " blobs are referenced.");
+
+		return removed;
+	}
+
+	private void mark(Node node, Set<String> referenced) throws RepositoryException {
+		PropertyIterator it = node.getProperties();
+		String prefix = rootName + '/';
+
+		while (it.hasNext()) {
+			Property p = it.nextProperty();
+
+			if (p.getType() != PropertyType.BINARY || p.isMultiple() || p.getLength() > MAX_REFERENCE_LENGTH || p.getLength() < 2) {
+				continue;
+			}
+
+			Binary binary = p.getBinary();
+
+			try {
+				byte[] content = new byte[(int) binary.getSize()];
+
+				try {
+					readFully(binary, content);
+				} catch (IOException e) {
+					throw new RepositoryException("Error reading binary property: " + p.getPath(), e);
+				}
+
+				if ((content[0] & 0xFF) == REFERENCE_TAG) {
+					String reference = new String(content, 1, content.length - 1, StandardCharsets.UTF_8);
+
+					if (reference.startsWith(prefix)) {
+						referenced.add(reference.substring(prefix.length()));
+					}
+				}
+			} finally {
+				binary.dispose();
+			}
+		}
+	}
+
+	private static void readFully(Binary binary, byte[] content) throws IOException, RepositoryException {
+		byte[] chunk = content;
+		int read = 0;
+
+		while (read < content.length) {
+			int n = binary.read(chunk, read);
+
+			if (n <= 0) {
+				throw new IOException("Unexpected end of binary!");
+			}
+
+			if (chunk != content) {
+				System.arraycopy(chunk, 0, content, read, n);
+			}
+
+			read += n;
+			chunk = new byte[content.length - read];
+		}
+	}
+
+	/**
+	 * @return the name of the node below the internal node containing the blobs
+	 */
+	public String getRootName() {
+		return rootName;
+	}
+
+	/**
+	 * @return the minimum size in bytes of encoded binaries to deduplicate
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * @param minSize the minimum size in bytes of encoded binaries to deduplicate
+	 */
+	public void setMinSize(int minSize) {
+		this.minSize = minSize;
+	}
+}
@@ -0,0 +1,519 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes large numbers of nodes and properties in batches. The session is
+ * saved every <code>batchSize</code> items or when the estimated size of the
+ * pending changes exceeds <code>maxBatchBytes</code>, so the transient space
+ * stays bounded. A failed batch is discarded and replayed up to
+ * <code>maxRetries</code> times.<br>
+ * If a <code>queueCapacity</code> greater than 0 is configured, the items are
+ * written by a background thread and producers block when the queue is full.
+ * In that case the session must not be used by any other thread until the
+ * writer has been closed.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class JCRBulkWriter implements AutoCloseable {
+	private static final Logger LOG = LoggerFactory.getLogger(JCRBulkWriter.class);
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	public static final long DEFAULT_MAX_BATCH_BYTES = 16L * 1024 * 1024;
+	public static final int DEFAULT_MAX_RETRIES = 2;
+	private static final Item END_OF_QUEUE = new Item(null, null, null, null, null);
+	private final Session session;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+	private int maxRetries = DEFAULT_MAX_RETRIES;
+	private long retryDelay = 100L;
+	private int queueCapacity = 0;
+	private BatchListener batchListener;
+	private final List<Item> batch = new ArrayList<Item>();
+	private long batchBytes = 0L;
+	private long batchStart = 0L;
+	private long batchCount = 0L;
+	private long itemCount = 0L;
+	private BlockingQueue<Item> queue;
+	private Thread writerThread;
+	private volatile Exception failure;
+	private boolean closed = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param session the session to write with
+	 */
+	public JCRBulkWriter(Session session) {
+		this.session = session;
+	}
+
+	/**
+	 * Adds a new node with the specified properties. If the node already exists its properties
+	 * matching the prefix are replaced.
+	 *
+	 * @param parentPath the absolute path of the parent node
+	 * @param name the name of the node
+	 * @param primaryType the primary node type or null to use the default type
+	 * @param prefix the property prefix
+	 * @param properties the map of property names (will be prepended with the prefix) and their value
+	 * @throws RepositoryException if the item could not be written or a previous batch failed
+	 */
+	public void addNode(String parentPath, String name, String primaryType, String prefix, Map<String, Comparable<?>> properties) throws RepositoryException {
+		submit(new Item(parentPath, name, primaryType, prefix, properties));
+	}
+
+	/**
+	 * Replaces the properties matching the prefix of an existing node like {@link JCRHelper#setProperties(Node, String, Map)}
+	 * but without saving the session.
+	 *
+	 * @param path the absolute path of the node
+	 * @param prefix the property prefix
+	 * @param properties the map of property names (will be prepended with the prefix) and their value
+	 * @throws RepositoryException if the item could not be written or a previous batch failed
+	 */
+	public void setProperties(String path, String prefix, Map<String, Comparable<?>> properties) throws RepositoryException {
+		submit(new Item(path, null, null, prefix, properties));
+	}
+
+	/**
+	 * Saves the pending batch. If a queue is used, only the items already taken
+	 * from the queue are saved.
+	 *
+	 * @throws RepositoryException if the batch could not be saved
+	 */
+	public synchronized void flush() throws RepositoryException {
+		checkFailure();
+
+		if (queue == null) {
+			commitBatch();
+		}
+	}
+
+	/**
+	 * Writes all pending items, saves the last batch and stops the background
+	 * writer thread.
+	 *
+	 * @throws RepositoryException if the pending items could not be written
+	 */
+	@Override
+	public void close() throws RepositoryException {
+		Thread thread;
+
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+			thread = writerThread;
+		}
+
+		if (thread != null) {
+			try {
+				queue.put(END_OF_QUEUE);
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RepositoryException("Interrupted while waiting for the bulk writer to finish", e);
+			}
+		} else {
+			commitBatch();
+		}
+
+		checkFailure();
+	}
+
+	private void submit(Item item) throws RepositoryException {
+		BlockingQueue<Item> q;
+
+		synchronized (this) {
+			if (closed) {
+				throw new RepositoryException("Bulk writer has been closed!");
+			}
+
+			checkFailure();
+
+			if (queueCapacity <= 0) {
+				write(item);
+				return;
+			}
+
+			if (writerThread == null) {
+				queue = new ArrayBlockingQueue<Item>(queueCapacity);
+				writerThread = new Thread(this::drainQueue, "jcr-bulk-writer");
+				writerThread.setDaemon(true);
+				writerThread.start();
+			}
+
+			q = queue;
+		}
+
+		try {
+			// blocks while the queue is full
+			q.put(item);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RepositoryException("Interrupted while queuing bulk item", e);
+		}
+	}
+
+	private void drainQueue() {
+		try {
+			Item item;
+
+			while ((item = queue.take()) != END_OF_QUEUE) {
+				if (failure == null) {
+					write(item);
+				}
+			}
+
+			if (failure == null) {
+				commitBatch();
+			}
+		} catch (InterruptedException e) {
+			failure = e;
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			failure = e;
+			LOG.error("Bulk writer failed!", e);
+
+			// keep draining so blocked producers are released
+			try {
+				while (queue.take() != END_OF_QUEUE) {
+				}
+			} catch (InterruptedException e1) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void write(Item item) throws RepositoryException {
+		long bytes;
+
+		try {
+			bytes = apply(item);
+		} catch (RepositoryException | RuntimeException e) {
+			// discard the partial changes of the item but keep the pending batch
+			session.refresh(false);
+
+			try {
+				replay();
+			} catch (RepositoryException | RuntimeException e1) {
+				e.addSuppressed(e1);
+			}
+
+			throw e;
+		}
+
+		if (batch.isEmpty()) {
+			batchStart = System.nanoTime();
+		}
+
+		batch.add(item);
+		batchBytes += bytes;
+
+		if (batch.size() >= batchSize || batchBytes >= maxBatchBytes) {
+			commitBatch();
+		}
+	}
+
+	/**
+	 * Applies the item to the transient space of the session.
+	 *
+	 * @param item the item
+	 * @return the estimated number of bytes written
+	 * @throws RepositoryException if the item could not be applied
+	 */
+	private long apply(Item item) throws RepositoryException {
+		Node node;
+
+		if (item.name == null) {
+			node = session.getNode(item.path);
+		} else {
+			Node parent = session.getNode(item.path);
+
+			if (parent.hasNode(item.name)) {
+				node = parent.getNode(item.name);
+			} else if (item.primaryType != null) {
+				node = parent.addNode(item.name, item.primaryType);
+			} else {
+				node = parent.addNode(item.name);
+			}
+		}
+
+		JCRHelper.writeProperties(node, item.prefix, item.properties);
+
+		long bytes = 0L;
+
+		for (String name : item.properties.keySet()) {
+			String propertyName = item.prefix + name;
+
+			if (node.hasProperty(propertyName)) {
+				Property p = node.getProperty(propertyName);
+				bytes += propertyName.length() + (p.isMultiple() ? 0L : Math.max(0L, p.getLength()));
+			}
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Re-applies the items of the pending batch after the transient space has
+	 * been discarded. If that fails the batch is dropped, so a single broken
+	 * batch does not fail all further writes.
+	 *
+	 * @throws RepositoryException if an item could not be re-applied
+	 */
+	private void replay() throws RepositoryException {
+		try {
+			for (Item item : batch) {
+				apply(item);
+			}
+		} catch (RepositoryException | RuntimeException e) {
+			session.refresh(false);
+			batch.clear();
+			batchBytes = 0L;
+			throw e;
+		}
+	}
+
+	private synchronized void commitBatch() throws RepositoryException {
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		int attempt = 1;
+
+		while (true) {
+			try {
+				JCRHelper.save(session);
+				break;
+			} catch (RepositoryException e) {
+				session.refresh(false);
+
+				if (attempt > maxRetries) {
+					batch.clear();
+					batchBytes = 0L;
+					throw new RepositoryException("Bulk batch " + (batchCount + 1) + " failed after " + attempt + " attempts!", e);
+				}
+
+				LOG.warn("Bulk batch " + (batchCount + 1) + " failed (attempt " + attempt + ") - retrying", e);
+				attempt++;
+				pause();
+
+				// replay the discarded changes of the batch
+				replay();
+			}
+		}
+
+		batchCount++;
+		itemCount += batch.size();
+		BatchStatistics statistics = new BatchStatistics(batchCount, batch.size(), batchBytes, (System.nanoTime() - batchStart) / 1000000L, attempt);
+		batch.clear();
+		batchBytes = 0L;
+
+		LOG.debug("{}", statistics);
+
+		if (batchListener != null) {
+			batchListener.batchCompleted(statistics);
+		}
+	}
+
+	private void pause() throws RepositoryException {
+		try {
+			Thread.sleep(retryDelay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RepositoryException("Interrupted while retrying bulk batch", e);
+		}
+	}
+
+	private void checkFailure() throws RepositoryException {
+		if (failure != null) {
+			throw new RepositoryException("Bulk writer failed!", failure);
+		}
+	}
+
+	/**
+	 * @param batchSize the number of items after which the session is saved
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param maxBatchBytes the estimated number of bytes after which the session is saved
+	 */
+	public void setMaxBatchBytes(long maxBatchBytes) {
+		this.maxBatchBytes = maxBatchBytes;
+	}
+
+	/**
+	 * @param maxRetries the number of times a failed batch is retried
+	 */
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * @param retryDelay the delay in milliseconds before a failed batch is retried
+	 */
+	public void setRetryDelay(long retryDelay) {
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * Sets the capacity of the producer queue. Must be set before the first
+	 * item is written.
+	 *
+	 * @param queueCapacity the queue capacity or 0 to write synchronously
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @param batchListener the listener notified after each saved batch
+	 */
+	public void setBatchListener(BatchListener batchListener) {
+		this.batchListener = batchListener;
+	}
+
+	/**
+	 * @return the number of saved batches
+	 */
+	public synchronized long getBatchCount() {
+		return batchCount;
+	}
+
+	/**
+	 * @return the number of saved items
+	 */
+	public synchronized long getItemCount() {
+		return itemCount;
+	}
+
+	/**
+	 * Listener notified after each batch has been saved.
+	 */
+	public interface BatchListener {
+		/**
+		 * Called after a batch has been saved.
+		 *
+		 * @param statistics the statistics of the batch
+		 */
+		void batchCompleted(BatchStatistics statistics);
+	}
+
+	/**
+	 * Statistics of a saved batch.
+	 */
+	public static class BatchStatistics {
+		private final long batchNumber;
+		private final int items;
+		private final long bytes;
+		private final long durationMillis;
+		private final int attempts;
+
+		BatchStatistics(long batchNumber, int items, long bytes, long durationMillis, int attempts) {
+			this.batchNumber = batchNumber;
+			this.items = items;
+			this.bytes = bytes;
+			this.durationMillis = durationMillis;
+			this.attempts = attempts;
+		}
+
+		/**
+		 * @return the sequence number of the batch starting with 1
+		 */
+		public long getBatchNumber() {
+			return batchNumber;
+		}
+
+		/**
+		 * @return the number of items in the batch
+		 */
+		public int getItems() {
+			return items;
+		}
+
+		/**
+		 * @return the estimated number of bytes written
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return the time in milliseconds from the first item to the save of the batch
+		 */
+		public long getDurationMillis() {
+			return durationMillis;
+		}
+
+		/**
+		 * @return the number of save attempts
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * @return the number of items written per second
+		 */
+		public double getItemsPerSecond() {
+			return items * 1000d / Math.max(1L, durationMillis);
+		}
+
+		@Override
+		public String toString() {
+			return "Batch " + batchNumber + ": " + items + " items, " + bytes + " bytes in " + durationMillis + "ms (" + Math.round(getItemsPerSecond()) + " items/s, " + attempts + " attempts)";
+		}
+	}
+
+	/**
+	 * A node or property update to write.
+	 */
+	private static class Item {
+		private final String path;
+		private final String name;
+		private final String primaryType;
+		private final String prefix;
+		private final Map<String, Comparable<?>> properties;
+
+		private Item(String path, String name, String primaryType, String prefix, Map<String, Comparable<?>> properties) {
+			this.path = path;
+			this.name = name;
+			this.primaryType = primaryType;
+			this.prefix = prefix;
+			this.properties = properties;
+		}
+	}
+}
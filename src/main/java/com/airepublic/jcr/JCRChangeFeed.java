@@ -0,0 +1,486 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.UnsupportedRepositoryOperationException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventJournal;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Push-based feed of node changes. A single {@link EventListener} is
+ * registered for the common ancestor of the configured paths and the
+ * optional node types. The events are coalesced per node within a time
+ * window and delivered as batches of {@link NodeChange}s to the subscribers.
+ * Batches are delivered in order by a single thread and at most
+ * <code>maxPendingBatches</code> batches wait for delivery. If the
+ * subscribers fall behind, further events are coalesced until a batch can be
+ * handed over, so slow subscribers receive fewer, larger batches instead of
+ * an unbounded backlog. At most <code>maxPendingChanges</code> distinct nodes
+ * are coalesced; events of further nodes block the observation thread until
+ * the pending changes have been handed over.<br>
+ * The changes are delivered in the order of their last event date and
+ * {@link #getPosition()} is the date of the last delivered event. A feed
+ * started with such a position replays the events from that date on from the
+ * {@link EventJournal} if the repository provides one; otherwise only new
+ * events are delivered. Events may then be delivered twice.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class JCRChangeFeed implements EventListener, AutoCloseable {
+	private static final Logger LOG = LoggerFactory.getLogger(JCRChangeFeed.class);
+	public static final int EVENT_TYPES = Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+	public static final long DEFAULT_WINDOW = 100L;
+	public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+	public static final int DEFAULT_MAX_PENDING_BATCHES = 16;
+	public static final int DEFAULT_MAX_PENDING_CHANGES = 10000;
+	private final Session session;
+	private final boolean ownsSession;
+	private final List<Consumer<List<NodeChange>>> subscribers = new CopyOnWriteArrayList<Consumer<List<NodeChange>>>();
+	private final Map<String, PendingChange> pending = new LinkedHashMap<String, PendingChange>();
+	private String[] paths = { "/" };
+	private String[] nodeTypes;
+	private long window = DEFAULT_WINDOW;
+	private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	private int maxPendingBatches = DEFAULT_MAX_PENDING_BATCHES;
+	private int maxPendingChanges = DEFAULT_MAX_PENDING_CHANGES;
+	private ScheduledExecutorService flusher;
+	private ExecutorService delivery;
+	private Semaphore deliveryPermits;
+	private boolean flushScheduled = false;
+	private boolean stopping = false;
+	private volatile long position = 0L;
+	private boolean resumed = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param session the session to register the event listener with
+	 */
+	public JCRChangeFeed(Session session) {
+		this(session, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param session the session to register the event listener with
+	 * @param ownsSession flag whether the session is logged out when the feed is closed
+	 */
+	JCRChangeFeed(Session session, boolean ownsSession) {
+		this.session = session;
+		this.ownsSession = ownsSession;
+	}
+
+	/**
+	 * Adds a subscriber receiving the batches of changes.
+	 *
+	 * @param subscriber the subscriber
+	 */
+	public void subscribe(Consumer<List<NodeChange>> subscriber) {
+		subscribers.add(subscriber);
+	}
+
+	/**
+	 * Removes a subscriber.
+	 *
+	 * @param subscriber the subscriber
+	 */
+	public void unsubscribe(Consumer<List<NodeChange>> subscriber) {
+		subscribers.remove(subscriber);
+	}
+
+	/**
+	 * Starts delivering new changes.
+	 *
+	 * @throws RepositoryException if the event listener could not be registered
+	 */
+	public void start() throws RepositoryException {
+		start(0L);
+	}
+
+	/**
+	 * Starts delivering changes after the specified position. The missed
+	 * changes are replayed from the event journal if the repository provides
+	 * one.
+	 *
+	 * @param position the position returned by {@link #getPosition()} or 0 to only deliver new changes
+	 * @throws RepositoryException if the event listener could not be registered
+	 */
+	public void start(long position) throws RepositoryException {
+		synchronized (this) {
+			if (flusher != null) {
+				throw new IllegalStateException("Change feed is already started!");
+			}
+
+			this.position = position;
+			stopping = false;
+			flusher = Executors.newSingleThreadScheduledExecutor(r -> newThread(r, "jcr-change-feed"));
+			delivery = Executors.newSingleThreadExecutor(r -> newThread(r, "jcr-change-feed-delivery"));
+			deliveryPermits = new Semaphore(maxPendingBatches);
+		}
+
+		ObservationManager observationManager = session.getWorkspace().getObservationManager();
+
+		try {
+			// register before replaying so no event is lost in between
+			observationManager.addEventListener(this, EVENT_TYPES, commonAncestor(paths), true, null, nodeTypes, false);
+
+			if (position > 0L) {
+				boolean replayed = replay(observationManager, position);
+
+				synchronized (this) {
+					resumed = replayed;
+				}
+			}
+		} catch (RepositoryException | RuntimeException e) {
+			stop();
+			throw e;
+		}
+	}
+
+	private static Thread newThread(Runnable r, String name) {
+		Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		return t;
+	}
+
+	private boolean replay(ObservationManager observationManager, long position) throws RepositoryException {
+		EventJournal journal;
+
+		try {
+			journal = observationManager.getEventJournal(EVENT_TYPES, commonAncestor(paths), true, null, nodeTypes);
+		} catch (UnsupportedRepositoryOperationException e) {
+			LOG.warn("Event journal is not supported - changes before starting the feed are not delivered!");
+			return false;
+		}
+
+		if (journal == null) {
+			LOG.warn("Event journal is not available - changes before starting the feed are not delivered!");
+			return false;
+		}
+
+		// events with the same date as the last delivered one might not have been delivered yet
+		journal.skipTo(position);
+		onEvent(journal);
+		return true;
+	}
+
+	@Override
+	public void onEvent(EventIterator events) {
+		while (events.hasNext()) {
+			Event event = events.nextEvent();
+
+			try {
+				add(event);
+			} catch (RepositoryException e) {
+				LOG.warn("Error reading observation event - skipping event!", e);
+			}
+		}
+	}
+
+	private void add(Event event) throws RepositoryException {
+		int type = event.getType();
+
+		if ((type & EVENT_TYPES) == 0) {
+			return;
+		}
+
+		boolean nodeEvent = (type & (Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED)) != 0;
+		String itemPath = event.getPath();
+		String nodePath = nodeEvent ? itemPath : parentPath(itemPath);
+
+		if (!matches(nodePath)) {
+			return;
+		}
+
+		synchronized (this) {
+			String identifier = event.getIdentifier();
+
+			// block the observation thread until the pending changes have been handed over
+			while (flusher != null && !stopping && pending.size() >= maxPendingChanges && !pending.containsKey(identifier)) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					LOG.warn("Interrupted while waiting for pending changes to be delivered - skipping event!");
+					return;
+				}
+			}
+
+			if (flusher == null || stopping) {
+				return;
+			}
+
+			PendingChange change = pending.computeIfAbsent(identifier, id -> new PendingChange(id));
+			change.path = nodePath;
+			change.eventTypes |= type;
+			change.date = Math.max(change.date, event.getDate());
+			change.userID = event.getUserID();
+
+			if (nodeEvent) {
+				change.removed = type == Event.NODE_REMOVED;
+			} else {
+				change.propertyNames.add(itemPath.substring(itemPath.lastIndexOf('/') + 1));
+			}
+
+			if (!flushScheduled) {
+				flushScheduled = true;
+				flusher.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Hands the coalesced changes over for delivery. Blocks while the maximum
+	 * number of batches is waiting, so further events are coalesced in the
+	 * meantime.
+	 */
+	private void flush() {
+		List<NodeChange> changes = new ArrayList<NodeChange>();
+		Semaphore permits;
+		ExecutorService executor;
+
+		synchronized (this) {
+			flushScheduled = false;
+
+			for (PendingChange change : pending.values()) {
+				changes.add(change.toNodeChange());
+			}
+
+			pending.clear();
+			notifyAll();
+			permits = deliveryPermits;
+			executor = delivery;
+		}
+
+		// deliver in date order so the position never passes an undelivered change
+		changes.sort(Comparator.comparingLong(NodeChange::getDate));
+
+		for (int i = 0; i < changes.size(); i += maxBatchSize) {
+			List<NodeChange> batch = Collections.unmodifiableList(changes.subList(i, Math.min(i + maxBatchSize, changes.size())));
+
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			try {
+				executor.execute(() -> {
+					try {
+						deliver(batch);
+					} finally {
+						permits.release();
+					}
+				});
+			} catch (RuntimeException e) {
+				permits.release();
+				LOG.debug("Change feed is closed - dropping changes.");
+				return;
+			}
+		}
+	}
+
+	private void deliver(List<NodeChange> batch) {
+		long last = position;
+
+		for (Consumer<List<NodeChange>> subscriber : subscribers) {
+			try {
+				subscriber.accept(batch);
+			} catch (RuntimeException e) {
+				LOG.warn("Error delivering changes to subscriber: " + subscriber, e);
+			}
+		}
+
+		for (NodeChange change : batch) {
+			last = Math.max(last, change.getDate());
+		}
+
+		position = last;
+	}
+
+	private boolean matches(String nodePath) {
+		for (String path : paths) {
+			if ("/".equals(path) || nodePath.equals(path) || nodePath.startsWith(path + "/")) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static String parentPath(String path) {
+		int index = path.lastIndexOf('/');
+		return index <= 0 ? "/" : path.substring(0, index);
+	}
+
+	static String commonAncestor(String[] paths) {
+		String ancestor = paths[0];
+
+		for (String path : paths) {
+			while (!"/".equals(ancestor) && !path.equals(ancestor) && !path.startsWith(ancestor + "/")) {
+				ancestor = parentPath(ancestor);
+			}
+		}
+
+		return ancestor;
+	}
+
+	/**
+	 * Unregisters the event listener and stops the delivery. Pending changes
+	 * are not delivered.
+	 */
+	private void stop() {
+		synchronized (this) {
+			// release an observation thread waiting for pending changes to be handed over
+			stopping = true;
+			notifyAll();
+		}
+
+		// not synchronized as removing the listener waits for a running onEvent
+		try {
+			session.getWorkspace().getObservationManager().removeEventListener(this);
+		} catch (RepositoryException e) {
+			LOG.warn("Error removing event listener of change feed!", e);
+		}
+
+		synchronized (this) {
+			if (flusher != null) {
+				flusher.shutdownNow();
+				delivery.shutdown();
+				flusher = null;
+				delivery = null;
+			}
+
+			pending.clear();
+			flushScheduled = false;
+		}
+	}
+
+	/**
+	 * Stops the feed and logs out the session if it is owned by the feed.
+	 */
+	@Override
+	public void close() {
+		stop();
+
+		if (ownsSession) {
+			session.logout();
+		}
+	}
+
+	/**
+	 * @return the date in ms of the last delivered event to resume the feed from
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return true if the changes since the start position have been replayed from the event journal
+	 */
+	public synchronized boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * @param paths the absolute paths of the subtrees to observe (default <code>/</code>)
+	 */
+	public void setPaths(String... paths) {
+		this.paths = paths == null || paths.length == 0 ? new String[] { "/" } : paths;
+	}
+
+	/**
+	 * @param nodeTypes the node types of the parent nodes of the observed items or none to observe all nodes
+	 */
+	public void setNodeTypes(String... nodeTypes) {
+		this.nodeTypes = nodeTypes == null || nodeTypes.length == 0 ? null : nodeTypes;
+	}
+
+	/**
+	 * @param window the time in ms in which events are coalesced before they are delivered
+	 */
+	public void setWindow(long window) {
+		this.window = window;
+	}
+
+	/**
+	 * @param maxBatchSize the maximum number of changes delivered in one batch
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * @param maxPendingBatches the maximum number of batches waiting for delivery
+	 */
+	public void setMaxPendingBatches(int maxPendingBatches) {
+		this.maxPendingBatches = maxPendingBatches;
+	}
+
+	/**
+	 * @param maxPendingChanges the maximum number of distinct nodes whose changes are coalesced before the observation thread is blocked
+	 */
+	public void setMaxPendingChanges(int maxPendingChanges) {
+		this.maxPendingChanges = maxPendingChanges;
+	}
+
+	/**
+	 * The changes of a node collected within the current window.
+	 */
+	private static class PendingChange {
+		private final String identifier;
+		private final Set<String> propertyNames = new HashSet<String>();
+		private String path;
+		private int eventTypes;
+		private boolean removed;
+		private long date;
+		private String userID;
+
+		private PendingChange(String identifier) {
+			this.identifier = identifier;
+		}
+
+		private NodeChange toNodeChange() {
+			return new NodeChange(identifier, path, eventTypes, removed, propertyNames, date, userID);
+		}
+	}
+}
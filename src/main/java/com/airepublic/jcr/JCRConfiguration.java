@@ -32,6 +32,13 @@ import java.util.Map;
  * <li>homeDir => path to repository home
  * <li>repositoryName => name of the repository to access
  * </ul>
+ * Instead of the configFile a {@link RepositoryConfigBuilder} can be set to
+ * generate the repository configuration in code. It can be created from a
+ * named profile by the following property:
+ * <ul>
+ * <li>profile => one of default, write-heavy, read-heavy, low-memory or in-memory
+ * </ul>
+ * The homeDir is optional for the in-memory profile.<br>
  * For a remote repository the configuration needs to contain the following
  * properties:
  * <ul>
@@ -40,13 +47,30 @@ import java.util.Map;
  * 
  * To use a CND-file add the following property:<br>
  * <ul>
- * <li>cndFile => the path to the CND-file
+ * <li>cndFile => the path to the CND-file or a comma-separated list of paths
+ * </ul>
+ * The session pool can be tuned with the following optional properties:<br>
+ * <ul>
+ * <li>sessionPoolMinSize => the minimum number of pooled sessions (default 0)
+ * <li>sessionPoolMaxSize => the maximum number of pooled sessions (default 20)
+ * <li>sessionPoolMaxWait => the maximum time in ms to wait for a session (default 30000)
+ * <li>sessionPoolIdleTimeout => the time in ms after which idle sessions are logged out (default 300000)
+ * </ul>
+ * The number of concurrently executed session callbacks can be limited with
+ * the following optional property:<br>
+ * <ul>
+ * <li>maxConcurrentTasks => the maximum number of concurrently executed session callbacks (default 20)
  * </ul>
  * (c) Copyright 2014 by ai-republic GmbH, Germany<br>
  *  <br>
  * @author Torsten.Oltmanns@ai-republic.com
  */
 public class JCRConfiguration {
+	public static final int DEFAULT_SESSION_POOL_MIN_SIZE = 0;
+	public static final int DEFAULT_SESSION_POOL_MAX_SIZE = 20;
+	public static final long DEFAULT_SESSION_POOL_MAX_WAIT = 30000L;
+	public static final long DEFAULT_SESSION_POOL_IDLE_TIMEOUT = 300000L;
+	public static final int DEFAULT_MAX_CONCURRENT_TASKS = 20;
 	private String configFile;
 	private String homeDir;
 	private String repositoryName;
@@ -55,6 +79,12 @@ public class JCRConfiguration {
 	private boolean encrypted;
 	private String url;
 	private String cndFile;
+	private int sessionPoolMinSize = DEFAULT_SESSION_POOL_MIN_SIZE;
+	private int sessionPoolMaxSize = DEFAULT_SESSION_POOL_MAX_SIZE;
+	private long sessionPoolMaxWait = DEFAULT_SESSION_POOL_MAX_WAIT;
+	private long sessionPoolIdleTimeout = DEFAULT_SESSION_POOL_IDLE_TIMEOUT;
+	private int maxConcurrentTasks = DEFAULT_MAX_CONCURRENT_TASKS;
+	private RepositoryConfigBuilder repositoryConfigBuilder;
 
 	/**
 	 * Default constructor.
@@ -110,11 +140,19 @@ public class JCRConfiguration {
 	 *  <li><code>configFile</code> -> the path to the repository.xml file
 	 *  <li><code>homeDir</code> -> the repository home path
 	 *  <li><code>repositoryName</code> -> the name of the repository<br>
+	 *  <b>or (for local repositories configured in code)</b>
+	 *  <li><code>homeDir</code> -> the repository home path (optional for the <code>in-memory</code> profile)
+	 *  <li><code>profile</code> -> the name of the {@link RepositoryConfigBuilder.Profile}<br>
 	 *  <b>and</b>
 	 *  <li><code>user</code> -> the user to log in with
 	 *  <li><code>password</code> -> the corresponding password
 	 *  <li><code>encrypted</code> -> flag whether the password is encrypted
-	 *  <li><code>cndFile</code> -> the path to an optional CND configuration file
+	 *  <li><code>cndFile</code> -> the path to an optional CND configuration file or a comma-separated list of paths
+	 *  <li><code>sessionPoolMinSize</code> -> the optional minimum session pool size
+	 *  <li><code>sessionPoolMaxSize</code> -> the optional maximum session pool size
+	 *  <li><code>sessionPoolMaxWait</code> -> the optional maximum wait time for a pooled session in ms
+	 *  <li><code>sessionPoolIdleTimeout</code> -> the optional idle timeout of pooled sessions in ms
+	 *  <li><code>maxConcurrentTasks</code> -> the optional maximum number of concurrently executed session callbacks
 	 * </ul>
 	 */
 	public JCRConfiguration(Map<String, String> config) {
@@ -126,6 +164,30 @@ public class JCRConfiguration {
 		this.encrypted = Boolean.parseBoolean(config.get("encrypted"));
 		this.url = config.get("url");
 		this.cndFile = config.get("cndFile");
+
+		if (config.get("sessionPoolMinSize") != null) {
+			this.sessionPoolMinSize = Integer.parseInt(config.get("sessionPoolMinSize"));
+		}
+		
+		if (config.get("sessionPoolMaxSize") != null) {
+			this.sessionPoolMaxSize = Integer.parseInt(config.get("sessionPoolMaxSize"));
+		}
+		
+		if (config.get("sessionPoolMaxWait") != null) {
+			this.sessionPoolMaxWait = Long.parseLong(config.get("sessionPoolMaxWait"));
+		}
+		
+		if (config.get("sessionPoolIdleTimeout") != null) {
+			this.sessionPoolIdleTimeout = Long.parseLong(config.get("sessionPoolIdleTimeout"));
+		}
+		
+		if (config.get("maxConcurrentTasks") != null) {
+			this.maxConcurrentTasks = Integer.parseInt(config.get("maxConcurrentTasks"));
+		}
+		
+		if (config.get("profile") != null) {
+			this.repositoryConfigBuilder = new RepositoryConfigBuilder(RepositoryConfigBuilder.Profile.forName(config.get("profile")));
+		}
 	}
 
 	/**
@@ -239,4 +301,95 @@ public class JCRConfiguration {
 	public void setCndFile(String cndFile) {
 		this.cndFile = cndFile;
 	}
+
+	/**
+	 * @return the paths of the configured CND files or an empty array
+	 */
+	String[] getCndFiles() {
+		return cndFile == null || cndFile.trim().isEmpty() ? new String[0] : cndFile.trim().split("\\s*,\\s*");
+	}
+
+	/**
+	 * @return the sessionPoolMinSize
+	 */
+	public int getSessionPoolMinSize() {
+		return sessionPoolMinSize;
+	}
+
+	/**
+	 * @param sessionPoolMinSize the sessionPoolMinSize to set
+	 */
+	public void setSessionPoolMinSize(int sessionPoolMinSize) {
+		this.sessionPoolMinSize = sessionPoolMinSize;
+	}
+
+	/**
+	 * @return the sessionPoolMaxSize
+	 */
+	public int getSessionPoolMaxSize() {
+		return sessionPoolMaxSize;
+	}
+
+	/**
+	 * @param sessionPoolMaxSize the sessionPoolMaxSize to set
+	 */
+	public void setSessionPoolMaxSize(int sessionPoolMaxSize) {
+		this.sessionPoolMaxSize = sessionPoolMaxSize;
+	}
+
+	/**
+	 * @return the sessionPoolMaxWait
+	 */
+	public long getSessionPoolMaxWait() {
+		return sessionPoolMaxWait;
+	}
+
+	/**
+	 * @param sessionPoolMaxWait the sessionPoolMaxWait to set
+	 */
+	public void setSessionPoolMaxWait(long sessionPoolMaxWait) {
+		this.sessionPoolMaxWait = sessionPoolMaxWait;
+	}
+
+	/**
+	 * @return the sessionPoolIdleTimeout
+	 */
+	public long getSessionPoolIdleTimeout() {
+		return sessionPoolIdleTimeout;
+	}
+
+	/**
+	 * @param sessionPoolIdleTimeout the sessionPoolIdleTimeout to set
+	 */
+	public void setSessionPoolIdleTimeout(long sessionPoolIdleTimeout) {
+		this.sessionPoolIdleTimeout = sessionPoolIdleTimeout;
+	}
+
+	/**
+	 * @return the maxConcurrentTasks
+	 */
+	public int getMaxConcurrentTasks() {
+		return maxConcurrentTasks;
+	}
+
+	/**
+	 * @param maxConcurrentTasks the maxConcurrentTasks to set
+	 */
+	public void setMaxConcurrentTasks(int maxConcurrentTasks) {
+		this.maxConcurrentTasks = maxConcurrentTasks;
+	}
+
+	/**
+	 * @return the repositoryConfigBuilder
+	 */
+	public RepositoryConfigBuilder getRepositoryConfigBuilder() {
+		return repositoryConfigBuilder;
+	}
+
+	/**
+	 * @param repositoryConfigBuilder the builder generating the configuration of a local repository if no configFile is set
+	 */
+	public void setRepositoryConfigBuilder(RepositoryConfigBuilder repositoryConfigBuilder) {
+		this.repositoryConfigBuilder = repositoryConfigBuilder;
+	}
 }
@@ -13,19 +13,25 @@
 */
 package com.airepublic.jcr;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 
 import javax.jcr.Binary;
 import javax.jcr.Node;
@@ -34,6 +40,7 @@ import javax.jcr.PropertyIterator;
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.Value;
 
 /**
  * Helper class to read/write properties on a node depending on its {@link PropertyType}.
@@ -43,6 +50,44 @@ import javax.jcr.Session;
  */
 public class JCRHelper
 {
+	private static final BinaryCodec LEGACY_CODEC = new JavaSerializationCodec();
+	/** the prefix of the namespace of the nodes used internally by this library */
+	public static final String NAMESPACE_PREFIX = "jcrutil";
+	/** the URI of the namespace of the nodes used internally by this library */
+	public static final String NAMESPACE_URI = "http://www.ai-republic.com/jcr-util/1.0";
+	/** the name of the node below <code>/jcr:system</code> containing the data used internally by this library */
+	public static final String INTERNAL_NODE = NAMESPACE_PREFIX + ":internal";
+	/** the path of the node containing the data used internally by this library */
+	public static final String INTERNAL_PATH = "/jcr:system/" + INTERNAL_NODE;
+	/** the primary type of the internal nodes, which allows any properties and child nodes but no same-name siblings */
+	public static final String INTERNAL_NODE_TYPE = NAMESPACE_PREFIX + ":unstructured";
+	/** the default number of encoded bytes kept in memory before a binary is spooled to a temporary file */
+	public static final int DEFAULT_SPOOL_THRESHOLD = 1024 * 1024;
+	private static final int READ_CHUNK_SIZE = 64 * 1024;
+	private static volatile int spoolThreshold = Integer.getInteger("jcr.binary.spoolThreshold", DEFAULT_SPOOL_THRESHOLD);
+	private static volatile JCRBlobStore blobStore = Boolean.getBoolean("jcr.binary.dedup") ? new JCRBlobStore() : null;
+	private static volatile BinaryCompressor compressor = System.getProperty("jcr.binary.compression") != null ? new BinaryCompressor(BinaryCompressor.Algorithm.valueOf(System.getProperty("jcr.binary.compression").toUpperCase())) : null;
+	private static final Map<Class<?>, ValueWriter> WRITERS = createWriters();
+	/** the writers resolved once per value class, falling back to the writer of a superclass or the BINARY writer */
+	private static final ClassValue<ValueWriter> WRITER_BY_CLASS = new ClassValue<ValueWriter>()
+	{
+		@Override
+		protected ValueWriter computeValue(Class<?> type)
+		{
+			for (Class<?> c = type; c != null; c = c.getSuperclass())
+			{
+				ValueWriter writer = WRITERS.get(c);
+				
+				if (writer != null)
+				{
+					return writer;
+				}
+			}
+			
+			return JCRHelper::writeBinary;
+		}
+	};
+	
 	/**
 	 * Gets the properties of the specified node using the specified prefix to identify the properties.
 	 * 
@@ -67,7 +112,36 @@ public class JCRHelper
 
 		return properties;
 	}
-	
+
+	/**
+	 * Gets a lazy view of the properties of the specified node using the specified prefix to identify the properties.
+	 * Only the property names are read up front; each value is read and converted on first access.
+	 *
+	 * @param node the node
+	 * @param prefix the property prefix
+	 * @return the unmodifiable map of property names (without the prefix) and their value
+	 *
+	 * @throws RepositoryException if access to the repository or node failed
+	 */
+	public static LazyPropertyMap getPropertiesLazy(Node node, String prefix) throws RepositoryException
+	{
+		PropertyIterator it = node.getProperties(prefix + "*");
+		String[] names = new String[(int) Math.max(0L, it.getSize())];
+		int count = 0;
+
+		while (it.hasNext())
+		{
+			if (count == names.length)
+			{
+				names = Arrays.copyOf(names, Math.max(8, count * 2));
+			}
+
+			names[count++] = it.nextProperty().getName().substring(prefix.length());
+		}
+
+		return new LazyPropertyMap(node, prefix, count == names.length ? names : Arrays.copyOf(names, count));
+	}
+
 	/**
 	 * Sets the properties of the specified node using the specified prefix to prepend to the property names.
 	 * 
@@ -78,13 +152,34 @@ public class JCRHelper
 	 * @throws RepositoryException if access to the repository or node failed
 	 */
 	public static void setProperties(Node node, String prefix, Map<String, Comparable<?>> properties) throws Exception
+	{
+		writeProperties(node, prefix, properties);
+		save(node.getSession());
+	}
+
+	/**
+	 * Replaces the properties of the specified node using the specified prefix to prepend to the property names
+	 * without saving the session.
+	 * 
+	 * @param node the node
+	 * @param prefix the property prefix
+	 * @param properties the map of property names (will be prepended with the prefix) and their value
+	 * 
+	 * @throws RepositoryException if access to the repository or node failed
+	 */
+	static void writeProperties(Node node, String prefix, Map<String, Comparable<?>> properties) throws RepositoryException
 	{
 		//remove all old properties
 		PropertyIterator it = node.getProperties(prefix + "*");
 		
 		while (it.hasNext())
 		{
-			it.nextProperty().remove();
+			Property p = it.nextProperty();
+			
+			if (!p.getDefinition().isProtected())
+			{
+				p.remove();
+			}
 		}
 		
 		//add all new properties
@@ -95,12 +190,128 @@ public class JCRHelper
 			String name = pIt.next();
 			setProperty(node, prefix + name, properties.get(name));
 		}
-		
-		node.getSession().save();
 	}
-	
+
+	/**
+	 * Incrementally updates the properties of the specified node using the specified prefix to prepend to the property names.
+	 * In contrast to {@link #setProperties(Node, String, Map)} only added or changed values are written and only properties
+	 * which are no longer contained in the map are removed. The session is only saved if a property has been modified.
+	 *
+	 * @param node the node
+	 * @param prefix the property prefix
+	 * @param properties the map of property names (will be prepended with the prefix) and their value
+	 * @return the names of the added, changed and removed properties
+	 *
+	 * @throws RepositoryException if access to the repository or node failed
+	 */
+	public static PropertyChanges updateProperties(Node node, String prefix, Map<String, Comparable<?>> properties) throws RepositoryException
+	{
+		PropertyChanges changes = new PropertyChanges();
+
+		//remove properties which are no longer present
+		PropertyIterator it = node.getProperties(prefix + "*");
+
+		while (it.hasNext())
+		{
+			Property p = it.nextProperty();
+			String name = p.getName().substring(prefix.length());
+
+			if (!properties.containsKey(name) && !p.getDefinition().isProtected())
+			{
+				p.remove();
+				changes.removed(name);
+			}
+		}
+
+		//write added and changed properties
+		for (Map.Entry<String, Comparable<?>> entry : properties.entrySet())
+		{
+			String name = prefix + entry.getKey();
+			Comparable<?> value = entry.getValue();
+
+			if (!node.hasProperty(name))
+			{
+				if (value != null)
+				{
+					setProperty(node, name, value);
+					changes.added(entry.getKey());
+				}
+			}
+			else if (value == null)
+			{
+				node.getProperty(name).remove();
+				changes.removed(entry.getKey());
+			}
+			else if (node.getProperty(name).isMultiple())
+			{
+				//multi-value properties are replaced by a single value
+				node.getProperty(name).remove();
+				setProperty(node, name, value);
+				changes.changed(entry.getKey());
+			}
+			else if (!isEqualValue(getProperty(node, name), value))
+			{
+				setProperty(node, name, value);
+				changes.changed(entry.getKey());
+			}
+		}
+
+		if (!changes.isEmpty())
+		{
+			save(node.getSession());
+		}
+
+		return changes;
+	}
+
+	/**
+	 * Saves the session and records the save latency.
+	 * 
+	 * @param session the session
+	 * @throws RepositoryException if the session could not be saved
+	 */
+	static void save(Session session) throws RepositoryException
+	{
+		long start = JCRMetrics.start();
+		session.save();
+		JCRMetrics.getInstance().recordSave(start);
+	}
+
+	/**
+	 * Checks whether the current value of a property equals the new value, taking the type conversion of
+	 * {@link #setProperty(Node, String, Comparable)} into account.
+	 *
+	 * @param current the current property value
+	 * @param value the new value
+	 * @return true if writing the value would not change the property
+	 */
+	private static boolean isEqualValue(Object current, Object value)
+	{
+		if (value instanceof Integer)
+		{
+			value = ((Integer) value).longValue();
+		}
+		else if (value instanceof Float)
+		{
+			value = ((Float) value).doubleValue();
+		}
+		else if (value instanceof Date)
+		{
+			// a date is written as DATE property, so only a DATE property can be equal
+			return current instanceof Calendar && ((Calendar) current).getTimeInMillis() == ((Date) value).getTime();
+		}
+
+		if (current instanceof Calendar && value instanceof Calendar)
+		{
+			return ((Calendar) current).getTimeInMillis() == ((Calendar) value).getTimeInMillis();
+		}
+
+		return Objects.deepEquals(current, value);
+	}
+
 	/**
-	 * Gets the property with the specified name from the specified node. Non-Standard properties will be converted to an object.
+	 * Gets the property with the specified name from the specified node. NAME, PATH, URI, REFERENCE and WEAKREFERENCE
+	 * values are returned as strings. Non-Standard properties will be converted to an object.
 	 * 
 	 * @param node the node
 	 * @param name the property name
@@ -109,17 +320,36 @@ public class JCRHelper
 	 */
 	public static Comparable<?> getProperty(Node node, String name) throws RepositoryException
 	{
+		long start = JCRMetrics.start();
 		Property p = node.getProperty(name);
+		int type = p.getType();
+		Comparable<?> value = readValue(node, name, p, type);
+		JCRMetrics.getInstance().recordPropertyGet(type, start);
+		
+		return value;
+	}
 
-		switch (p.getType())
+	/**
+	 * Reads the value of the property depending on its {@link PropertyType}.
+	 * 
+	 * @param node the node
+	 * @param name the property name
+	 * @param p the property
+	 * @param type the property type
+	 * @return the value
+	 * @throws RepositoryException if access to the repository or node failed
+	 */
+	private static Comparable<?> readValue(Node node, String name, Property p, int type) throws RepositoryException
+	{
+		switch (type)
 		{
 		case PropertyType.STRING:
-			return p.getString();
 		case PropertyType.NAME:
-			return p.getName();
 		case PropertyType.PATH:
-			return p.getPath();
 		case PropertyType.URI:
+		case PropertyType.REFERENCE:
+		case PropertyType.WEAKREFERENCE:
+			// the string form of the value like PropertyVisitor gets it, e.g. the identifier of the referenced node
 			return p.getString();
 		case PropertyType.LONG:
 			return p.getLong();
@@ -133,7 +363,7 @@ public class JCRHelper
 			return p.getDate();
 		default:
 			try {
-				return (Comparable<?>) JCRHelper.createObject(p.getBinary());
+				return (Comparable<?>) JCRHelper.createObject(node.getSession(), p.getBinary());
 			} catch (IOException e) {
 				throw new RepositoryException("Error creating object from binary property '" + name + "' from node: " + node, e);
 			}
@@ -141,64 +371,328 @@ public class JCRHelper
 	}
 	
 	/**
-	 * Sets the property with the specified name from the specified node. Non-Standard properties will be converted to a binary type object.
+	 * Gets the LONG value of the property with the specified name without boxing. Values of other types are converted 
+	 * according to the JCR value conversion rules.
 	 * 
 	 * @param node the node
 	 * @param name the property name
-	 * @param value the value
-	 * @throws RepositoryException if access to the repository or node failed
+	 * @param defaultValue the value to return if the node has no such property
+	 * @return the value
+	 * @throws RepositoryException if access to the repository or node failed or the value cannot be converted
 	 */
-	public static void setProperty(Node node, String name, Comparable<?> value) throws RepositoryException
+	public static long getLong(Node node, String name, long defaultValue) throws RepositoryException
 	{
-		if (value instanceof String)
-		{
-			node.setProperty(name, (String) value);
-		}
-		else if ((value != null && value.getClass() == int.class) || value instanceof Integer)
+		long start = JCRMetrics.start();
+		
+		if (!node.hasProperty(name))
 		{
-			node.setProperty(name, (Integer)value);
+			return defaultValue;
 		}
-		else if ((value != null && value.getClass() == long.class) || value instanceof Long)
+		
+		Property p = node.getProperty(name);
+		long value = p.getLong();
+		JCRMetrics.getInstance().recordPropertyGet(p.getType(), start);
+		
+		return value;
+	}
+
+	/**
+	 * Gets the DOUBLE value of the property with the specified name without boxing. Values of other types are converted 
+	 * according to the JCR value conversion rules.
+	 * 
+	 * @param node the node
+	 * @param name the property name
+	 * @param defaultValue the value to return if the node has no such property
+	 * @return the value
+	 * @throws RepositoryException if access to the repository or node failed or the value cannot be converted
+	 */
+	public static double getDouble(Node node, String name, double defaultValue) throws RepositoryException
+	{
+		long start = JCRMetrics.start();
+		
+		if (!node.hasProperty(name))
 		{
-			node.setProperty(name, (Long)value);
+			return defaultValue;
 		}
-		else if ((value != null && value.getClass() == float.class) || value instanceof Float)
+		
+		Property p = node.getProperty(name);
+		double value = p.getDouble();
+		JCRMetrics.getInstance().recordPropertyGet(p.getType(), start);
+		
+		return value;
+	}
+
+	/**
+	 * Gets the BOOLEAN value of the property with the specified name without boxing. Values of other types are converted 
+	 * according to the JCR value conversion rules.
+	 * 
+	 * @param node the node
+	 * @param name the property name
+	 * @param defaultValue the value to return if the node has no such property
+	 * @return the value
+	 * @throws RepositoryException if access to the repository or node failed or the value cannot be converted
+	 */
+	public static boolean getBoolean(Node node, String name, boolean defaultValue) throws RepositoryException
+	{
+		long start = JCRMetrics.start();
+		
+		if (!node.hasProperty(name))
 		{
-			node.setProperty(name, (Float)value);
+			return defaultValue;
 		}
-		else if ((value != null && value.getClass() == double.class) || value instanceof Double)
+		
+		Property p = node.getProperty(name);
+		boolean value = p.getBoolean();
+		JCRMetrics.getInstance().recordPropertyGet(p.getType(), start);
+		
+		return value;
+	}
+
+	/**
+	 * Passes the values of the properties of the specified node using the specified prefix to identify the properties 
+	 * to the visitor. LONG, DOUBLE and BOOLEAN values are passed as primitives and BINARY values are not decoded.
+	 * 
+	 * @param node the node
+	 * @param prefix the property prefix
+	 * @param visitor the visitor receiving the property names (without the prefix) and their values
+	 * @throws RepositoryException if access to the repository or node failed or the visitor failed
+	 */
+	public static void visitProperties(Node node, String prefix, PropertyVisitor visitor) throws RepositoryException
+	{
+		PropertyIterator it = node.getProperties(prefix + "*");
+		
+		while (it.hasNext())
 		{
-			node.setProperty(name, (Double)value);
+			long start = JCRMetrics.start();
+			Property p = it.nextProperty();
+			String name = p.getName().substring(prefix.length());
+			int type = p.getType();
+			
+			if (p.isMultiple())
+			{
+				for (Value value : p.getValues())
+				{
+					visitValue(visitor, name, type, value);
+				}
+			}
+			else
+			{
+				visitValue(visitor, name, type, p.getValue());
+			}
+			
+			JCRMetrics.getInstance().recordPropertyGet(type, start);
 		}
-		else if (value instanceof BigDecimal)
+	}
+
+	/**
+	 * Passes the value to the visitor method of its {@link PropertyType}.
+	 * 
+	 * @param visitor the visitor
+	 * @param name the property name without the prefix
+	 * @param type the property type
+	 * @param value the value
+	 * @throws RepositoryException if the value could not be read or the visitor failed
+	 */
+	private static void visitValue(PropertyVisitor visitor, String name, int type, Value value) throws RepositoryException
+	{
+		switch (type)
 		{
-			node.setProperty(name, (BigDecimal)value);
+		case PropertyType.STRING:
+			visitor.visitString(name, value.getString());
+			break;
+		case PropertyType.BINARY:
+			Binary binary = value.getBinary();
+			
+			try
+			{
+				visitor.visitBinary(name, binary);
+			}
+			finally
+			{
+				binary.dispose();
+			}
+			break;
+		case PropertyType.LONG:
+			visitor.visitLong(name, value.getLong());
+			break;
+		case PropertyType.DOUBLE:
+			visitor.visitDouble(name, value.getDouble());
+			break;
+		case PropertyType.DATE:
+			visitor.visitDate(name, value.getDate());
+			break;
+		case PropertyType.BOOLEAN:
+			visitor.visitBoolean(name, value.getBoolean());
+			break;
+		case PropertyType.NAME:
+			visitor.visitName(name, value.getString());
+			break;
+		case PropertyType.PATH:
+			visitor.visitPath(name, value.getString());
+			break;
+		case PropertyType.REFERENCE:
+			visitor.visitReference(name, value.getString());
+			break;
+		case PropertyType.WEAKREFERENCE:
+			visitor.visitWeakReference(name, value.getString());
+			break;
+		case PropertyType.URI:
+			visitor.visitUri(name, value.getString());
+			break;
+		case PropertyType.DECIMAL:
+			visitor.visitDecimal(name, value.getDecimal());
+			break;
+		default:
+			break;
 		}
-		else if ((value != null && value.getClass() == boolean.class) || value instanceof Boolean)
+	}
+
+	/**
+	 * Sets the property with the specified name from the specified node. Non-Standard properties will be converted to a binary type object.
+	 * 
+	 * @param node the node
+	 * @param name the property name
+	 * @param value the value
+	 * @throws RepositoryException if access to the repository or node failed
+	 */
+	public static void setProperty(Node node, String name, Comparable<?> value) throws RepositoryException
+	{
+		long start = JCRMetrics.start();
+		int type = writeValue(node, name, value);
+		JCRMetrics.getInstance().recordPropertySet(type, start);
+	}
+
+	/**
+	 * Sets the LONG property with the specified name on the specified node without boxing.
+	 * 
+	 * @param node the node
+	 * @param name the property name
+	 * @param value the value
+	 * @throws RepositoryException if access to the repository or node failed
+	 */
+	public static void setLong(Node node, String name, long value) throws RepositoryException
+	{
+		long start = JCRMetrics.start();
+		node.setProperty(name, value);
+		JCRMetrics.getInstance().recordPropertySet(PropertyType.LONG, start);
+	}
+
+	/**
+	 * Sets the DOUBLE property with the specified name on the specified node without boxing.
+	 * 
+	 * @param node the node
+	 * @param name the property name
+	 * @param value the value
+	 * @throws RepositoryException if access to the repository or node failed
+	 */
+	public static void setDouble(Node node, String name, double value) throws RepositoryException
+	{
+		long start = JCRMetrics.start();
+		node.setProperty(name, value);
+		JCRMetrics.getInstance().recordPropertySet(PropertyType.DOUBLE, start);
+	}
+
+	/**
+	 * Sets the BOOLEAN property with the specified name on the specified node without boxing.
+	 * 
+	 * @param node the node
+	 * @param name the property name
+	 * @param value the value
+	 * @throws RepositoryException if access to the repository or node failed
+	 */
+	public static void setBoolean(Node node, String name, boolean value) throws RepositoryException
+	{
+		long start = JCRMetrics.start();
+		node.setProperty(name, value);
+		JCRMetrics.getInstance().recordPropertySet(PropertyType.BOOLEAN, start);
+	}
+
+	/**
+	 * Writes the value to the property with the writer of the value class.
+	 * 
+	 * @param node the node
+	 * @param name the property name
+	 * @param value the value
+	 * @return the {@link PropertyType} written
+	 * @throws RepositoryException if access to the repository or node failed
+	 */
+	private static int writeValue(Node node, String name, Comparable<?> value) throws RepositoryException
+	{
+		if (value == null)
 		{
-			node.setProperty(name, (Boolean) value);
+			node.setProperty(name, (String) null);
+			return PropertyType.UNDEFINED;
 		}
-		else if (value instanceof Date)
-		{
+		
+		return WRITER_BY_CLASS.get(value.getClass()).write(node, name, value);
+	}
+
+	/**
+	 * Creates the writers of the value classes stored as standard property types.
+	 * 
+	 * @return the writers by value class
+	 */
+	private static Map<Class<?>, ValueWriter> createWriters()
+	{
+		Map<Class<?>, ValueWriter> writers = new HashMap<Class<?>, ValueWriter>();
+		writers.put(String.class, (node, name, value) -> {
+			node.setProperty(name, (String) value);
+			return PropertyType.STRING;
+		});
+		writers.put(Integer.class, (node, name, value) -> {
+			node.setProperty(name, (long) (Integer) value);
+			return PropertyType.LONG;
+		});
+		writers.put(Long.class, (node, name, value) -> {
+			node.setProperty(name, (long) (Long) value);
+			return PropertyType.LONG;
+		});
+		writers.put(Float.class, (node, name, value) -> {
+			node.setProperty(name, (double) (Float) value);
+			return PropertyType.DOUBLE;
+		});
+		writers.put(Double.class, (node, name, value) -> {
+			node.setProperty(name, (double) (Double) value);
+			return PropertyType.DOUBLE;
+		});
+		writers.put(BigDecimal.class, (node, name, value) -> {
+			node.setProperty(name, (BigDecimal) value);
+			return PropertyType.DECIMAL;
+		});
+		writers.put(Boolean.class, (node, name, value) -> {
+			node.setProperty(name, (boolean) (Boolean) value);
+			return PropertyType.BOOLEAN;
+		});
+		writers.put(Date.class, (node, name, value) -> {
 			Calendar cal = new GregorianCalendar();
 			cal.setTime((Date) value);
 			node.setProperty(name, cal);
-		}
-		else if (value instanceof Calendar)
-		{
+			return PropertyType.DATE;
+		});
+		writers.put(Calendar.class, (node, name, value) -> {
 			node.setProperty(name, (Calendar) value);
-		}
-		else if (value != null)
-		{
-			try {
-				node.setProperty(name, JCRHelper.createBinary(node.getSession(), (Serializable) value));
-			} catch (IOException e) {
-				throw new RepositoryException("Error creating binary property '" + name + "' from object value '" + value + "' on node: " + node, e);
-			}
-		}
-		else
-		{
-			node.setProperty(name, (String)value);
+			return PropertyType.DATE;
+		});
+		
+		return writers;
+	}
+
+	/**
+	 * Writes the value as BINARY property encoded by {@link #createBinary(Session, Object)}.
+	 * 
+	 * @param node the node
+	 * @param name the property name
+	 * @param value the value
+	 * @return {@link PropertyType#BINARY}
+	 * @throws RepositoryException if access to the repository or node failed or the value could not be encoded
+	 */
+	private static int writeBinary(Node node, String name, Object value) throws RepositoryException
+	{
+		try {
+			node.setProperty(name, JCRHelper.createBinary(node.getSession(), value));
+			return PropertyType.BINARY;
+		} catch (IOException e) {
+			throw new RepositoryException("Error creating binary property '" + name + "' from object value '" + value + "' on node: " + node, e);
 		}
 	}
 	
@@ -212,46 +706,101 @@ public class JCRHelper
 	 */
 	public static Binary createBinary(Session session, Serializable value) throws IOException
 	{
-		PipedInputStream pis = new PipedInputStream();
-		ObjectOutputStream oos = null;
+		return createBinary(session, (Object) value);
+	}
+
+	/**
+	 * Creates a binary property from the specified value using the registered {@link BinaryCodec} 
+	 * with the highest priority which can encode the value.
+	 * 
+	 * @param session the current JCR connection session
+	 * @param value the value
+	 * @return the binary property
+	 * @throws IOException if no codec can encode the value or an error occurs converting the value
+	 */
+	public static Binary createBinary(Session session, Object value) throws IOException
+	{
+		BinaryCodec codec = BinaryCodecs.getCodec(value);
 		
-		try
-		{
-			oos = new ObjectOutputStream(new PipedOutputStream(pis));
-			oos.writeObject(value);
-			oos.close();
-			return session.getValueFactory().createBinary(pis);
-		}
-		catch (Exception e)
+		if (codec == null)
 		{
-			throw new IOException(e);
+			throw new IOException("No binary codec found for value of type: " + value.getClass().getName());
 		}
-		finally 
+		
+		return createBinary(session, value, codec);
+	}
+
+	/**
+	 * Creates a binary property from the specified value using the specified codec. The type tag of the 
+	 * codec is written as first byte of the binary to select the decoder when reading the value.
+	 * 
+	 * @param session the current JCR connection session
+	 * @param value the value
+	 * @param codec the codec to encode the value
+	 * @return the binary property
+	 * @throws IOException if an error occurs converting the value
+	 */
+	public static Binary createBinary(Session session, Object value, BinaryCodec codec) throws IOException
+	{
+		long start = JCRMetrics.start();
+		JCRBlobStore store = blobStore;
+		BinaryCompressor compressor = JCRHelper.compressor;
+		SpoolingBuffer compressed = null;
+		
+		// the value factory has consumed the stream when it returns, so the temporary files can be deleted
+		try (SpoolingBuffer buffer = new SpoolingBuffer(spoolThreshold))
 		{
-			if (oos != null)
+			// deduplicate by the hash of the uncompressed content
+			MessageDigest digest = store != null ? newSha256Digest() : null;
+			OutputStream out = digest != null ? new DigestOutputStream(buffer, digest) : buffer;
+			out.write(codec.getTypeTag());
+			codec.encode(value, out);
+			
+			SpoolingBuffer payload = buffer;
+			
+			if (compressor != null && buffer.size() >= compressor.getMinSize())
 			{
-				try
-				{
-					oos.close();
-				}
-				catch (Exception e2)
+				compressed = new SpoolingBuffer(spoolThreshold);
+				compressor.compress(buffer.toInputStream(), compressed);
+				
+				if (compressed.size() < buffer.size())
 				{
+					payload = compressed;
 				}
 			}
 			
-			try
+			Binary binary;
+			
+			if (store != null && buffer.size() >= store.getMinSize())
 			{
-				pis.close();
+				binary = store.store(session, toHex(digest.digest()), payload);
 			}
-			catch (Exception e2)
+			else
 			{
+				binary = session.getValueFactory().createBinary(payload.toInputStream());
+			}
+			
+			JCRMetrics.getInstance().recordBinaryEncode(start, payload.size());
+			return binary;
+		}
+		catch (RepositoryException e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			if (compressed != null)
+			{
+				compressed.close();
 			}
 		}
-
 	}
 
 	/**
-	 * Creates an object from the specified binary property. 
+	 * Creates an object from the specified binary property. The decoder is selected by the type tag 
+	 * of the binary. Binaries written without type tag are read with Java serialization. The binary 
+	 * is read in chunks, so only the decoded object is held in memory. Binaries referencing a 
+	 * deduplicated blob can only be read by {@link #createObject(Session, Binary)}.
 	 * 
 	 * @param value the value
 	 * @return the object value
@@ -259,23 +808,225 @@ public class JCRHelper
 	 */
 	public static Object createObject(Binary value) throws IOException
 	{
-		Object obj = null;
-		ObjectInputStream ois = null;
+		return createObject(null, value);
+	}
+
+	/**
+	 * Creates an object from the specified binary property. The decoder is selected by the type tag 
+	 * of the binary. Binaries written without type tag are read with Java serialization, binaries 
+	 * compressed by a {@link BinaryCompressor} are decompressed and binaries referencing a 
+	 * deduplicated blob of a {@link JCRBlobStore} are resolved with the session.
+	 * 
+	 * @param session the session to resolve deduplicated blobs with or null
+	 * @param value the value
+	 * @return the object value
+	 * @throws IOException if an error occurs converting the value
+	 */
+	public static Object createObject(Session session, Binary value) throws IOException
+	{
+		long start = JCRMetrics.start();
+		InputStream in = null;
 		
 		try
 		{
-			ois = new ObjectInputStream(value.getStream());
-			obj = ois.readObject();
+			in = new BinaryInputStream(value, READ_CHUNK_SIZE);
+			Object obj = decode(session, in);
+			JCRMetrics.getInstance().recordBinaryDecode(start, value.getSize());
+			return obj;
 		}
-		catch (Exception e)
+		catch (RepositoryException e)
 		{
 			throw new IOException(e);
 		}
 		finally
 		{
-			ois.close();
+			if (in != null)
+			{
+				in.close();
+			}
+		}
+	}
+	
+	/**
+	 * Decodes the object from the stream depending on its leading type tag.
+	 * 
+	 * @param session the session to resolve deduplicated blobs with or null
+	 * @param in the stream supporting mark and reset
+	 * @return the object value
+	 * @throws IOException if an error occurs decoding the value
+	 * @throws RepositoryException if a deduplicated blob could not be read
+	 */
+	private static Object decode(Session session, InputStream in) throws IOException, RepositoryException
+	{
+		in.mark(1);
+		int tag = in.read();
+		
+		if (tag == -1)
+		{
+			throw new IOException("Binary value is empty!");
+		}
+		else if (tag == BinaryCodecs.LEGACY_SERIALIZATION_TAG)
+		{
+			// binary written before type tags were introduced
+			in.reset();
+			return LEGACY_CODEC.decode(in);
+		}
+		else if (BinaryCompressor.isCompressed(tag))
+		{
+			// the compressed content starts with the type tag of the codec
+			InputStream decompressed = new BufferedInputStream(BinaryCompressor.decompress(tag, in), READ_CHUNK_SIZE);
+			
+			try
+			{
+				return decode(session, decompressed);
+			}
+			finally
+			{
+				decompressed.close();
+			}
+		}
+		else if (tag == JCRBlobStore.REFERENCE_TAG)
+		{
+			if (session == null)
+			{
+				throw new IOException("Binary references a deduplicated blob and can only be read with a session!");
+			}
+			
+			String reference = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			Binary blob = JCRBlobStore.resolve(session, reference);
+			InputStream blobIn = new BinaryInputStream(blob, READ_CHUNK_SIZE);
+			
+			try
+			{
+				return decode(session, blobIn);
+			}
+			finally
+			{
+				blobIn.close();
+			}
+		}
+
+		BinaryCodec codec = BinaryCodecs.getCodec(tag);
+		
+		if (codec == null)
+		{
+			throw new IOException("No binary codec registered for type tag: " + tag);
+		}
+		
+		return codec.decode(in);
+	}
+	
+	/**
+	 * @return the blob store deduplicating encoded binaries or null if deduplication is disabled
+	 */
+	public static JCRBlobStore getBlobStore()
+	{
+		return blobStore;
+	}
+	
+	/**
+	 * Enables the deduplication of binaries created by {@link #createBinary(Session, Object, BinaryCodec)} 
+	 * in the specified blob store. Deduplication is disabled by default and can also be enabled with the 
+	 * system property <code>jcr.binary.dedup</code>. Binaries referencing blobs remain readable when 
+	 * deduplication is disabled again. A store enabled after the repository has been started should be
+	 * initialized with {@link JCRBlobStore#initialize(Session)}.
+	 * 
+	 * @param store the blob store or null to disable deduplication
+	 */
+	public static void setBlobStore(JCRBlobStore store)
+	{
+		blobStore = store;
+	}
+	
+	/**
+	 * @return the compressor of encoded binaries or null if compression is disabled
+	 */
+	public static BinaryCompressor getCompressor()
+	{
+		return compressor;
+	}
+	
+	/**
+	 * Enables the compression of binaries created by {@link #createBinary(Session, Object, BinaryCodec)} 
+	 * with the specified compressor. Compression is disabled by default and can also be enabled with the 
+	 * system property <code>jcr.binary.compression</code> set to <code>deflate</code> or <code>gzip</code>. 
+	 * Compressed binaries remain readable when compression is disabled again.
+	 * 
+	 * @param compressor the compressor or null to disable compression
+	 */
+	public static void setCompressor(BinaryCompressor compressor)
+	{
+		JCRHelper.compressor = compressor;
+	}
+	
+	/**
+	 * Creates a new SHA-256 message digest.
+	 * 
+	 * @return the message digest
+	 */
+	static MessageDigest newSha256Digest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
 		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 is not supported!", e);
+		}
+	}
+	
+	/**
+	 * Converts the bytes to a lower-case hexadecimal string.
+	 * 
+	 * @param bytes the bytes
+	 * @return the hexadecimal string
+	 */
+	static String toHex(byte[] bytes)
+	{
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
 		
-		return obj;
+		for (byte b : bytes)
+		{
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		
+		return hex.toString();
+	}
+	
+	/**
+	 * @return the number of encoded bytes kept in memory before a binary is spooled to a temporary file
+	 */
+	public static int getSpoolThreshold()
+	{
+		return spoolThreshold;
+	}
+	
+	/**
+	 * Sets the number of encoded bytes kept in memory by {@link #createBinary(Session, Object, BinaryCodec)} 
+	 * before the binary is spooled to a temporary file. The default can also be set with the system property 
+	 * <code>jcr.binary.spoolThreshold</code>.
+	 * 
+	 * @param threshold the spool threshold in bytes
+	 */
+	public static void setSpoolThreshold(int threshold)
+	{
+		spoolThreshold = threshold;
+	}
+
+	/**
+	 * Writes a value of a specific class to a property.
+	 */
+	@FunctionalInterface
+	private interface ValueWriter
+	{
+		/**
+		 * @param node the node
+		 * @param name the property name
+		 * @param value the value
+		 * @return the {@link PropertyType} written
+		 * @throws RepositoryException if access to the repository or node failed
+		 */
+		int write(Node node, String name, Object value) throws RepositoryException;
 	}
 }
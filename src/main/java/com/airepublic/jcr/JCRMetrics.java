@@ -0,0 +1,247 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.jcr.PropertyType;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records latencies and counters of repository logins, session saves,
+ * property reads and writes by property type and binary encoding and decoding
+ * and exposes them as MXBean named <code>com.airepublic.jcr:type=JCRMetrics</code>.<br>
+ * Recording costs a {@link System#nanoTime()} call and a few atomic increments
+ * per operation. Metrics can be switched off entirely with the system property
+ * <code>jcr.metrics.enabled=false</code> or at runtime with
+ * {@link #setEnabled(boolean)}. The MXBean is registered as soon as metrics
+ * are enabled and stays registered when they are switched off again.<br>
+ * Only sessions of the {@link JCRSessionPool}s are counted as open sessions,
+ * because sessions handed out by {@link JCRRepository#createSession()} are
+ * logged out by their callers.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class JCRMetrics implements JCRMetricsMXBean {
+	private static final Logger LOG = LoggerFactory.getLogger(JCRMetrics.class);
+	public static final String OBJECT_NAME = "com.airepublic.jcr:type=JCRMetrics";
+	private static final int PROPERTY_TYPES = PropertyType.DECIMAL + 1;
+	private static final JCRMetrics INSTANCE = new JCRMetrics();
+	private static volatile boolean enabled = Boolean.parseBoolean(System.getProperty("jcr.metrics.enabled", "true"));
+	private final LatencyHistogram login = new LatencyHistogram();
+	private final LatencyHistogram save = new LatencyHistogram();
+	private final LatencyHistogram[] propertyGet = new LatencyHistogram[PROPERTY_TYPES];
+	private final LatencyHistogram[] propertySet = new LatencyHistogram[PROPERTY_TYPES];
+	private final LatencyHistogram binaryEncode = new LatencyHistogram();
+	private final LatencyHistogram binaryDecode = new LatencyHistogram();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final AtomicLong pooledSessions = new AtomicLong();
+
+	static {
+		if (enabled) {
+			register();
+		}
+	}
+
+	private JCRMetrics() {
+		for (int i = 0; i < PROPERTY_TYPES; i++) {
+			propertyGet[i] = new LatencyHistogram();
+			propertySet[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Gets the metrics instance.
+	 * 
+	 * @return the metrics
+	 */
+	public static JCRMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Registers the MXBean with the platform MBean server if it is not
+	 * registered yet.
+	 */
+	private static synchronized void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+
+			if (!server.isRegistered(name)) {
+				server.registerMBean(INSTANCE, name);
+			}
+		} catch (Exception e) {
+			LOG.warn("Error registering JCR metrics MBean!", e);
+		}
+	}
+
+	/**
+	 * Gets the start time of an operation to record.
+	 * 
+	 * @return the current nano time or 0 if metrics are disabled
+	 */
+	static long start() {
+		return enabled ? System.nanoTime() : 0L;
+	}
+
+	void recordLogin(long start) {
+		record(login, start);
+	}
+
+	void recordSave(long start) {
+		record(save, start);
+	}
+
+	void recordPropertyGet(int propertyType, long start) {
+		if (propertyType >= 0 && propertyType < PROPERTY_TYPES) {
+			record(propertyGet[propertyType], start);
+		}
+	}
+
+	void recordPropertySet(int propertyType, long start) {
+		if (propertyType >= 0 && propertyType < PROPERTY_TYPES) {
+			record(propertySet[propertyType], start);
+		}
+	}
+
+	void recordBinaryEncode(long start, long bytes) {
+		if (start != 0L) {
+			record(binaryEncode, start);
+			bytesWritten.add(bytes);
+		}
+	}
+
+	void recordBinaryDecode(long start, long bytes) {
+		if (start != 0L) {
+			record(binaryDecode, start);
+			bytesRead.add(bytes);
+		}
+	}
+
+	void pooledSessionOpened() {
+		pooledSessions.incrementAndGet();
+	}
+
+	void pooledSessionClosed() {
+		pooledSessions.decrementAndGet();
+	}
+
+	private static void record(LatencyHistogram histogram, long start) {
+		if (start != 0L) {
+			histogram.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Switches the recording of metrics on or off. Switching them on registers
+	 * the MXBean if it has not been registered yet.
+	 * 
+	 * @param enabled true to record metrics
+	 */
+	public static void setEnabled(boolean enabled) {
+		if (enabled) {
+			register();
+		}
+
+		JCRMetrics.enabled = enabled;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public LatencySnapshot getLogin() {
+		return login.snapshot();
+	}
+
+	@Override
+	public LatencySnapshot getSave() {
+		return save.snapshot();
+	}
+
+	@Override
+	public Map<String, LatencySnapshot> getPropertyGet() {
+		return snapshot(propertyGet);
+	}
+
+	@Override
+	public Map<String, LatencySnapshot> getPropertySet() {
+		return snapshot(propertySet);
+	}
+
+	private static Map<String, LatencySnapshot> snapshot(LatencyHistogram[] histograms) {
+		Map<String, LatencySnapshot> snapshots = new LinkedHashMap<String, LatencySnapshot>();
+
+		for (int type = PropertyType.STRING; type < PROPERTY_TYPES; type++) {
+			snapshots.put(PropertyType.nameFromValue(type), histograms[type].snapshot());
+		}
+
+		return snapshots;
+	}
+
+	@Override
+	public LatencySnapshot getBinaryEncode() {
+		return binaryEncode.snapshot();
+	}
+
+	@Override
+	public LatencySnapshot getBinaryDecode() {
+		return binaryDecode.snapshot();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	@Override
+	public long getPooledSessions() {
+		return pooledSessions.get();
+	}
+
+	@Override
+	public void reset() {
+		login.reset();
+		save.reset();
+
+		for (int i = 0; i < PROPERTY_TYPES; i++) {
+			propertyGet[i].reset();
+			propertySet[i].reset();
+		}
+
+		binaryEncode.reset();
+		binaryDecode.reset();
+		bytesWritten.reset();
+		bytesRead.reset();
+	}
+}
@@ -0,0 +1,80 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link JCRMetrics}.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public interface JCRMetricsMXBean {
+	/**
+	 * @return true if metrics are recorded
+	 */
+	boolean isEnabled();
+
+	/**
+	 * @return the latencies of repository logins
+	 */
+	LatencySnapshot getLogin();
+
+	/**
+	 * @return the latencies of session saves
+	 */
+	LatencySnapshot getSave();
+
+	/**
+	 * @return the latencies of reading properties by property type name
+	 */
+	Map<String, LatencySnapshot> getPropertyGet();
+
+	/**
+	 * @return the latencies of writing properties by property type name
+	 */
+	Map<String, LatencySnapshot> getPropertySet();
+
+	/**
+	 * @return the latencies of encoding objects to binaries
+	 */
+	LatencySnapshot getBinaryEncode();
+
+	/**
+	 * @return the latencies of decoding objects from binaries
+	 */
+	LatencySnapshot getBinaryDecode();
+
+	/**
+	 * @return the number of binary bytes written
+	 */
+	long getBytesWritten();
+
+	/**
+	 * @return the number of binary bytes read
+	 */
+	long getBytesRead();
+
+	/**
+	 * @return the number of open sessions of the session pools, other sessions are not counted
+	 */
+	long getPooledSessions();
+
+	/**
+	 * Resets all latencies and counters except the pooled sessions.
+	 */
+	void reset();
+}
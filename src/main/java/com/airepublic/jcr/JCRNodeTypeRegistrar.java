@@ -0,0 +1,264 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.NamespaceRegistry;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.nodetype.NodeDefinitionTemplate;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.jcr.nodetype.NodeTypeTemplate;
+import javax.jcr.nodetype.PropertyDefinitionTemplate;
+
+import org.apache.jackrabbit.commons.cnd.CompactNodeTypeDefReader;
+import org.apache.jackrabbit.commons.cnd.ParseException;
+import org.apache.jackrabbit.commons.cnd.TemplateBuilderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the node types of one or more CND sources only if they changed
+ * since the last registration. The fingerprint of the CND content and of each
+ * node type definition is stored in the node {@value #FINGERPRINT_NODE} below
+ * the internal node {@value JCRHelper#INTERNAL_PATH} of this library, so it
+ * does not appear in the content of the applications. If the content fingerprint is unchanged and all node types
+ * exist, the registration is skipped without parsing the sources. Otherwise
+ * only the node types whose definition changed or which are not registered
+ * are (re-)registered. Node types removed from the sources are not
+ * unregistered.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class JCRNodeTypeRegistrar {
+	private static final Logger LOG = LoggerFactory.getLogger(JCRNodeTypeRegistrar.class);
+	public static final String FINGERPRINT_NODE = JCRHelper.NAMESPACE_PREFIX + ":cndFingerprints";
+	private static final String FINGERPRINT_PROPERTY = "fingerprint";
+	private static final String NODE_TYPES_PROPERTY = "nodeTypes";
+	private final Session session;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param session the session to register the node types with
+	 */
+	public JCRNodeTypeRegistrar(Session session) {
+		this.session = session;
+	}
+
+	/**
+	 * Registers the node types of the specified CND files.
+	 *
+	 * @param files the paths of the CND files
+	 * @return the names of the registered node types
+	 * @throws IOException if a file could not be read
+	 * @throws RepositoryException if the node types could not be registered
+	 */
+	public List<String> registerFiles(String... files) throws IOException, RepositoryException {
+		Map<String, String> sources = new LinkedHashMap<String, String>();
+
+		for (String file : files) {
+			sources.put(file, new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8));
+		}
+
+		return register(sources);
+	}
+
+	/**
+	 * Registers the node types of the specified CND sources.
+	 *
+	 * @param sources the CND content by system id (e.g. the file name) in the order to register them
+	 * @return the names of the registered node types
+	 * @throws RepositoryException if the node types could not be registered
+	 */
+	public List<String> register(Map<String, String> sources) throws RepositoryException {
+		NodeTypeManager nodeTypeManager = session.getWorkspace().getNodeTypeManager();
+		MessageDigest digest = JCRHelper.newSha256Digest();
+
+		for (Map.Entry<String, String> source : sources.entrySet()) {
+			digest.update(source.getKey().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(source.getValue().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+
+		String fingerprint = JCRHelper.toHex(digest.digest());
+		Node fingerprintNode = findFingerprintNode();
+		Map<String, String> stored = readNodeTypeFingerprints(fingerprintNode);
+
+		if (fingerprintNode != null && fingerprintNode.hasProperty(FINGERPRINT_PROPERTY) && fingerprint.equals(fingerprintNode.getProperty(FINGERPRINT_PROPERTY).getString()) && allRegistered(nodeTypeManager, stored)) {
+			LOG.debug("Node type definitions are unchanged - skipping registration.");
+			return new ArrayList<String>();
+		}
+
+		Map<String, NodeTypeTemplate> templates = parse(sources);
+		Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+		List<NodeTypeTemplate> changed = new ArrayList<NodeTypeTemplate>();
+
+		for (NodeTypeTemplate template : templates.values()) {
+			String name = template.getName();
+			String typeFingerprint = fingerprint(template);
+			fingerprints.put(name, typeFingerprint);
+
+			if (!typeFingerprint.equals(stored.get(name)) || !nodeTypeManager.hasNodeType(name)) {
+				changed.add(template);
+			}
+		}
+
+		List<String> registered = new ArrayList<String>();
+
+		if (!changed.isEmpty()) {
+			nodeTypeManager.registerNodeTypes(changed.toArray(new NodeTypeTemplate[changed.size()]), true);
+
+			for (NodeTypeTemplate template : changed) {
+				registered.add(template.getName());
+			}
+
+			LOG.info("Registered node types: " + registered);
+		} else {
+			LOG.debug("Node type definitions are unchanged - skipping registration.");
+		}
+
+		storeFingerprints(fingerprint, fingerprints);
+
+		return registered;
+	}
+
+	private Map<String, NodeTypeTemplate> parse(Map<String, String> sources) throws RepositoryException {
+		Map<String, NodeTypeTemplate> templates = new LinkedHashMap<String, NodeTypeTemplate>();
+
+		for (Map.Entry<String, String> source : sources.entrySet()) {
+			try {
+				CompactNodeTypeDefReader<NodeTypeTemplate, NamespaceRegistry> reader = new CompactNodeTypeDefReader<NodeTypeTemplate, NamespaceRegistry>(new StringReader(source.getValue()), source.getKey(), new TemplateBuilderFactory(session));
+
+				for (NodeTypeTemplate template : reader.getNodeTypeDefinitions()) {
+					templates.put(template.getName(), template);
+				}
+			} catch (ParseException e) {
+				throw new RepositoryException("Error parsing CND source: " + source.getKey(), e);
+			}
+		}
+
+		return templates;
+	}
+
+	private Node findFingerprintNode() throws RepositoryException {
+		Node internal = InternalNodes.get(session);
+
+		return internal != null && internal.hasNode(FINGERPRINT_NODE) ? internal.getNode(FINGERPRINT_NODE) : null;
+	}
+
+	private static boolean allRegistered(NodeTypeManager nodeTypeManager, Map<String, String> stored) throws RepositoryException {
+		if (stored.isEmpty()) {
+			return false;
+		}
+
+		for (String name : stored.keySet()) {
+			if (!nodeTypeManager.hasNodeType(name)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static Map<String, String> readNodeTypeFingerprints(Node fingerprintNode) throws RepositoryException {
+		Map<String, String> fingerprints = new HashMap<String, String>();
+
+		if (fingerprintNode != null && fingerprintNode.hasProperty(NODE_TYPES_PROPERTY)) {
+			for (Value value : fingerprintNode.getProperty(NODE_TYPES_PROPERTY).getValues()) {
+				String entry = value.getString();
+				int index = entry.lastIndexOf(' ');
+				fingerprints.put(entry.substring(0, index), entry.substring(index + 1));
+			}
+		}
+
+		return fingerprints;
+	}
+
+	private void storeFingerprints(String fingerprint, Map<String, String> fingerprints) throws RepositoryException {
+		String[] entries = new String[fingerprints.size()];
+		int i = 0;
+
+		for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+			entries[i++] = entry.getKey() + ' ' + entry.getValue();
+		}
+
+		try {
+			// retried if another cluster node adds the fingerprint node concurrently
+			InternalNodes.save(session, s -> {
+				Node fingerprintNode = InternalNodes.getOrAdd(InternalNodes.getOrAdd(s), FINGERPRINT_NODE, JCRHelper.INTERNAL_NODE_TYPE);
+				fingerprintNode.setProperty(FINGERPRINT_PROPERTY, fingerprint);
+				fingerprintNode.setProperty(NODE_TYPES_PROPERTY, entries);
+				return null;
+			});
+		} catch (RepositoryException e) {
+			session.refresh(false);
+			LOG.warn("Error storing node type fingerprints - the node types will be compared again on the next registration!", e);
+		}
+	}
+
+	/**
+	 * Creates the fingerprint of the node type definition.
+	 *
+	 * @param template the node type template
+	 * @return the fingerprint
+	 * @throws RepositoryException if a default value could not be read
+	 */
+	static String fingerprint(NodeTypeTemplate template) throws RepositoryException {
+		StringBuilder def = new StringBuilder();
+		def.append(template.getName()).append('>').append(Arrays.toString(template.getDeclaredSupertypeNames()));
+		def.append('|').append(template.isAbstract()).append('|').append(template.isMixin()).append('|').append(template.hasOrderableChildNodes());
+		def.append('|').append(template.isQueryable()).append('|').append(template.getPrimaryItemName());
+
+		for (Object o : template.getPropertyDefinitionTemplates()) {
+			PropertyDefinitionTemplate p = (PropertyDefinitionTemplate) o;
+			def.append("\n-").append(p.getName()).append('|').append(p.getRequiredType()).append('|').append(p.isMultiple());
+			def.append('|').append(p.isMandatory()).append('|').append(p.isAutoCreated()).append('|').append(p.isProtected());
+			def.append('|').append(p.getOnParentVersion()).append('|').append(Arrays.toString(p.getValueConstraints()));
+			def.append('|').append(Arrays.toString(p.getAvailableQueryOperators())).append('|').append(p.isFullTextSearchable()).append('|').append(p.isQueryOrderable());
+
+			if (p.getDefaultValues() != null) {
+				for (Value value : p.getDefaultValues()) {
+					def.append('|').append(value.getString());
+				}
+			}
+		}
+
+		for (Object o : template.getNodeDefinitionTemplates()) {
+			NodeDefinitionTemplate n = (NodeDefinitionTemplate) o;
+			def.append("\n+").append(n.getName()).append('|').append(Arrays.toString(n.getRequiredPrimaryTypeNames()));
+			def.append('|').append(n.getDefaultPrimaryTypeName()).append('|').append(n.isMandatory()).append('|').append(n.isAutoCreated());
+			def.append('|').append(n.isProtected()).append('|').append(n.getOnParentVersion()).append('|').append(n.allowsSameNameSiblings());
+		}
+
+		return JCRHelper.toHex(JCRHelper.newSha256Digest().digest(def.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+}
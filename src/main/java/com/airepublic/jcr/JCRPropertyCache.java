@@ -0,0 +1,336 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache for the results of {@link JCRHelper#getProperties(Node, String)} keyed
+ * by node identifier and property prefix. The cached entries are immutable
+ * snapshots of the persisted values: the returned maps are unmodifiable and
+ * each caller gets its own copy of {@link Calendar} values. Properties whose
+ * decoded BINARY value is not of a built-in immutable type (strings, numbers,
+ * {@link java.util.UUID}s, enums and the <code>java.time</code> types) are
+ * never cached, so such nodes are always read from the repository.<br>
+ * Entries are invalidated by an {@link EventListener} registered on the
+ * workspace of the observation session whenever a property of the node is
+ * added, changed or removed or the node is removed. Nodes with unsaved changes
+ * are always read from the repository. The number of cached entries is bounded
+ * and the least recently used entries are evicted first.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class JCRPropertyCache implements EventListener, AutoCloseable {
+	private static final Logger LOG = LoggerFactory.getLogger(JCRPropertyCache.class);
+	private static final int EVENT_TYPES = Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED | Event.NODE_REMOVED;
+	private final Session observationSession;
+	private final boolean ownsSession;
+	private final int maxEntries;
+	private final Map<String, Snapshot> entries;
+	private final Map<String, Set<String>> keysByIdentifier = new HashMap<String, Set<String>>();
+	private long generation = 0L;
+	private long hitCount = 0L;
+	private long missCount = 0L;
+	private long evictionCount = 0L;
+	private long invalidationCount = 0L;
+	private long uncacheableCount = 0L;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param observationSession the session used to register the event listener
+	 * @param maxEntries the maximum number of cached entries
+	 * @throws RepositoryException if the event listener could not be registered
+	 */
+	public JCRPropertyCache(Session observationSession, int maxEntries) throws RepositoryException {
+		this(observationSession, maxEntries, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param observationSession the session used to register the event listener
+	 * @param maxEntries the maximum number of cached entries
+	 * @param ownsSession flag whether the session is logged out when the cache is closed
+	 * @throws RepositoryException if the event listener could not be registered
+	 */
+	JCRPropertyCache(Session observationSession, int maxEntries, boolean ownsSession) throws RepositoryException {
+		this.observationSession = observationSession;
+		this.ownsSession = ownsSession;
+		this.maxEntries = maxEntries;
+		entries = new LinkedHashMap<String, Snapshot>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+				if (size() > JCRPropertyCache.this.maxEntries) {
+					evictionCount++;
+					unindex(eldest.getKey());
+					return true;
+				}
+
+				return false;
+			}
+		};
+
+		observationSession.getWorkspace().getObservationManager().addEventListener(this, EVENT_TYPES, "/", true, null, null, false);
+	}
+
+	/**
+	 * Gets the properties of the specified node using the specified prefix to
+	 * identify the properties from the cache or the repository.
+	 *
+	 * @param node the node
+	 * @param prefix the property prefix
+	 * @return the unmodifiable map of property names (without the prefix) and their value
+	 * @throws RepositoryException if access to the repository or node failed
+	 */
+	public Map<String, Comparable<?>> getProperties(Node node, String prefix) throws RepositoryException {
+		// transient changes are not visible to other sessions
+		if (node.isNew() || node.isModified()) {
+			return Collections.unmodifiableMap(JCRHelper.getProperties(node, prefix));
+		}
+
+		String identifier = node.getIdentifier();
+		String key = identifier + '\n' + prefix;
+		Snapshot cached;
+		long readGeneration;
+
+		synchronized (this) {
+			cached = entries.get(key);
+
+			if (cached != null) {
+				hitCount++;
+			} else {
+				missCount++;
+			}
+
+			readGeneration = generation;
+		}
+
+		if (cached != null) {
+			return cached.copy();
+		}
+
+		Map<String, Comparable<?>> properties = JCRHelper.getProperties(node, prefix);
+		Snapshot snapshot = Snapshot.of(properties);
+
+		synchronized (this) {
+			if (snapshot == null) {
+				uncacheableCount++;
+			} else if (readGeneration == generation) {
+				// do not cache values which might have been invalidated while reading
+				entries.put(key, snapshot);
+				keysByIdentifier.computeIfAbsent(identifier, id -> new HashSet<String>()).add(key);
+			}
+		}
+
+		// the snapshot holds its own copies, so the values read can be handed out
+		return Collections.unmodifiableMap(properties);
+	}
+
+	/**
+	 * Removes all cached entries of the node with the specified identifier.
+	 *
+	 * @param identifier the node identifier
+	 */
+	public synchronized void invalidate(String identifier) {
+		generation++;
+		Set<String> keys = keysByIdentifier.remove(identifier);
+
+		if (keys != null) {
+			invalidationCount += keys.size();
+			entries.keySet().removeAll(keys);
+		}
+	}
+
+	/**
+	 * Removes all cached entries.
+	 */
+	public synchronized void invalidateAll() {
+		generation++;
+		invalidationCount += entries.size();
+		entries.clear();
+		keysByIdentifier.clear();
+	}
+
+	@Override
+	public void onEvent(EventIterator events) {
+		while (events.hasNext()) {
+			Event event = events.nextEvent();
+
+			try {
+				invalidate(event.getIdentifier());
+			} catch (RepositoryException e) {
+				LOG.warn("Error processing event - invalidating all cached properties!", e);
+				invalidateAll();
+			}
+		}
+	}
+
+	/**
+	 * Unregisters the event listener and clears the cache.
+	 */
+	@Override
+	public void close() {
+		try {
+			observationSession.getWorkspace().getObservationManager().removeEventListener(this);
+		} catch (RepositoryException e) {
+			LOG.warn("Error removing event listener of property cache!", e);
+		}
+
+		if (ownsSession) {
+			observationSession.logout();
+		}
+
+		invalidateAll();
+	}
+
+	private void unindex(String key) {
+		String identifier = key.substring(0, key.indexOf('\n'));
+		Set<String> keys = keysByIdentifier.get(identifier);
+
+		if (keys != null) {
+			keys.remove(key);
+
+			if (keys.isEmpty()) {
+				keysByIdentifier.remove(identifier);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of cached entries
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the maximum number of cached entries
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @return the number of cache hits
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of cache misses
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of entries evicted because the cache was full
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return the number of entries removed because they were invalidated
+	 */
+	public synchronized long getInvalidationCount() {
+		return invalidationCount;
+	}
+
+	/**
+	 * @return the number of reads which were not cached because a value is mutable
+	 */
+	public synchronized long getUncacheableCount() {
+		return uncacheableCount;
+	}
+
+	/**
+	 * An immutable snapshot of the properties of a node. {@link Calendar}
+	 * values are copied when the snapshot is created and on every read.
+	 */
+	private static class Snapshot {
+		private final Map<String, Comparable<?>> properties;
+		private final boolean hasCalendars;
+
+		private Snapshot(Map<String, Comparable<?>> properties, boolean hasCalendars) {
+			this.properties = properties;
+			this.hasCalendars = hasCalendars;
+		}
+
+		/**
+		 * Creates a snapshot of the properties.
+		 *
+		 * @param properties the properties read from the repository
+		 * @return the snapshot or null if a value is neither immutable nor a {@link Calendar}
+		 */
+		private static Snapshot of(Map<String, Comparable<?>> properties) {
+			Map<String, Comparable<?>> copy = new LinkedHashMap<String, Comparable<?>>(properties);
+			boolean hasCalendars = false;
+
+			for (Map.Entry<String, Comparable<?>> entry : copy.entrySet()) {
+				Object value = entry.getValue();
+
+				if (value instanceof Calendar) {
+					entry.setValue((Calendar) ((Calendar) value).clone());
+					hasCalendars = true;
+				} else if (value != null && !JCRBinaryCache.isDefaultImmutable(value)) {
+					return null;
+				}
+			}
+
+			return new Snapshot(Collections.unmodifiableMap(copy), hasCalendars);
+		}
+
+		/**
+		 * @return the unmodifiable map of properties with copies of all mutable values
+		 */
+		private Map<String, Comparable<?>> copy() {
+			if (!hasCalendars) {
+				return properties;
+			}
+
+			Map<String, Comparable<?>> copy = new LinkedHashMap<String, Comparable<?>>(properties);
+
+			for (Map.Entry<String, Comparable<?>> entry : copy.entrySet()) {
+				if (entry.getValue() instanceof Calendar) {
+					entry.setValue((Calendar) ((Calendar) entry.getValue()).clone());
+				}
+			}
+
+			return Collections.unmodifiableMap(copy);
+		}
+	}
+}
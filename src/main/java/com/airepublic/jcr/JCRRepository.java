@@ -13,21 +13,37 @@
 */
 package com.airepublic.jcr;
 
-import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.jcr.Credentials;
 import javax.jcr.GuestCredentials;
+import javax.jcr.Node;
 import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
-import javax.jcr.nodetype.NodeType;
+import javax.jcr.query.Query;
 
-import org.apache.jackrabbit.commons.JcrUtils;
-import org.apache.jackrabbit.commons.cnd.CndImporter;
 import org.apache.jackrabbit.core.security.authentication.CryptedSimpleCredentials;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,19 +53,37 @@ import org.slf4j.LoggerFactory;
  * repository.<br>
  * If no credentials are configured then GuestCredential are used to try to
  * access the repository.<br>
+ * The repository is created lazily on first access or eagerly in the
+ * background by {@link #startAsync()}. All instances with the same
+ * configuration share one repository of the {@link JCRRepositoryRegistry}
+ * which is shut down when the last instance has been shut down by
+ * {@link #shutdown()}. If the creation fails the failure is
+ * kept and available by {@link #getStartupFailure()}; the next access tries to
+ * create the repository again.<br>
+ * Within a CDI container the repository is application scoped, so all
+ * injection points share the instance started by the
+ * {@link JCRRepositoryInitializer}, and it is shut down when the application
+ * scope is destroyed.<br>
  * <br>
  * (c) Copyright 2014 by ai-republic GmbH, Germany
  *	 
  * @author Torsten.Oltmanns@ai-republic.com
  * 
  */
+@ApplicationScoped
 public class JCRRepository {
 	private static final Logger LOG = LoggerFactory.getLogger(JCRRepository.class);
 	@Inject
 	private JCRConfiguration configuration;
-	private Repository repository = null;
+	private volatile Repository repository = null;
+	private volatile Exception startupFailure = null;
+	private CompletableFuture<Repository> startup = null;
+	private final Object startupLock = new Object();
 	private Session session;
 	private Credentials credentials = new GuestCredentials();
+	private final Map<Object, JCRSessionPool> sessionPools = new ConcurrentHashMap<Object, JCRSessionPool>();
+	private ExecutorService taskExecutor;
+	private Semaphore taskPermits;
 
 	/**
 	 * Constructor.
@@ -70,21 +104,78 @@ public class JCRRepository {
 	 * Gets the repository based on the configuration.
 	 * 
 	 * @return the repository
+	 * @throws IllegalStateException if the repository could not be created
 	 */
 	public Repository getRepository() {
 		if (repository == null) {
 			createRepository();
+			
+			if (repository == null) {
+				throw new IllegalStateException("Repository could not be created!", startupFailure);
+			}
 		}
 		return repository;
 	}
 	
 	/**
-	 * Creates the repository based on the configuration.
+	 * Starts creating the repository in a background thread. Repeated calls
+	 * return the same future unless the previous start failed. Callers
+	 * accessing the repository while it is being started wait for the start to
+	 * complete.
+	 * 
+	 * @return the future completed with the repository or exceptionally with the startup failure
+	 */
+	public CompletableFuture<Repository> startAsync() {
+		synchronized (startupLock) {
+			if (repository != null) {
+				return CompletableFuture.completedFuture(repository);
+			}
+			
+			if (startup == null || startup.isCompletedExceptionally()) {
+				startup = CompletableFuture.supplyAsync(() -> {
+					createRepository();
+					
+					if (repository == null) {
+						throw new CompletionException(startupFailure);
+					}
+					
+					return repository;
+				}, r -> {
+					Thread t = new Thread(r, "jcr-repository-startup");
+					t.setDaemon(true);
+					t.start();
+				});
+			}
+			
+			return startup;
+		}
+	}
+	
+	/**
+	 * Checks whether the repository has been created and the default session
+	 * is logged in.
 	 * 
-	 * @return the created repository
+	 * @return true if the repository is ready
+	 */
+	public boolean isReady() {
+		return repository != null;
+	}
+	
+	/**
+	 * @return the failure of the last attempt to create the repository or null if it did not fail
+	 */
+	public Exception getStartupFailure() {
+		return startupFailure;
+	}
+	
+	/**
+	 * Creates the repository based on the configuration. If the creation fails
+	 * the repository stays null and the failure is kept as startup failure.
 	 */
 	protected synchronized void createRepository() {
 		if (repository == null) {
+			Repository repository = null;
+			
 			try {
 				if (getConfiguration().getUser() != null && getConfiguration().getPassword() != null) {
 
@@ -101,52 +192,97 @@ public class JCRRepository {
 					credentials = new GuestCredentials();
 				}
 
-				if (getConfiguration().getUrl() != null) {
-					// connect to a remote repository
-					repository = JcrUtils.getRepository(getConfiguration().getUrl());
-				} else if (getConfiguration().getConfigFile() != null && getConfiguration().getHomeDir() != null && getConfiguration().getRepositoryName() != null) {
-					// connect to a local repository
-					BindableRepositoryFactory factory = new BindableRepositoryFactory();
-					factory.setConfigFile(getConfiguration().getConfigFile());
-					factory.setHomeDir(getConfiguration().getHomeDir());
-					factory.setRepositoryName(getConfiguration().getRepositoryName());
-					factory.setOverwrite(false);
-					repository = factory.getRepository();
-				} else {
-					throw new IllegalArgumentException("Repository configuration is not valid!");
-				}
+				// get the shared repository for the configuration
+				repository = JCRRepositoryRegistry.acquire(getConfiguration());
 
 				// Login to the default workspace
 				session = repository.login(credentials);
 
-				// load an optionally configured CND file
+				// register the node types of the optionally configured CND files if they changed
 				if (getConfiguration().getCndFile() != null) {
-					FileReader reader = null;
 					try {
-						reader = new FileReader(getConfiguration().getCndFile());
-						
-						NodeType[] nodeTypes = CndImporter.registerNodeTypes(reader, session);
-
-						for (NodeType nt : nodeTypes) {
-							System.out.println("Registered: " + nt.getName());
-						}
-					} catch (Throwable t) {
-						throw new RepositoryException(t);
-					}
-					finally {
-						if (reader != null) {
-							reader.close();
-						}
+						new JCRNodeTypeRegistrar(session).registerFiles(getConfiguration().getCndFiles());
+					} catch (IOException e) {
+						throw new RepositoryException("Error reading CND file(s): " + getConfiguration().getCndFile(), e);
 					}
 				}
+
+				// create the container nodes of the blobs, so concurrent writers do not add them
+				if (JCRHelper.getBlobStore() != null) {
+					JCRHelper.getBlobStore().initialize(session);
+				}
+				
+				// publish the repository only after it is completely initialized
+				startupFailure = null;
+				this.repository = repository;
 			} catch (Exception e) {
+				startupFailure = e;
 				LOG.error("Error creating local repository!", e);
+				
+				if (session != null) {
+					session.logout();
+					session = null;
+				}
+				
+				if (repository != null) {
+					JCRRepositoryRegistry.release(getConfiguration());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes the session pools, logs out the default session and releases the
+	 * shared repository. The repository is shut down if no other instance
+	 * uses it. The instance can be started again afterwards.
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+		synchronized (sessionPools) {
+			if (taskExecutor != null) {
+				taskExecutor.shutdown();
+				taskExecutor = null;
+				taskPermits = null;
+			}
+		}
+		
+		closeSessionPools();
+		
+		if (session != null) {
+			session.logout();
+			session = null;
+		}
+		
+		if (repository != null) {
+			repository = null;
+			
+			synchronized (startupLock) {
+				startup = null;
+			}
+			
+			JCRRepositoryRegistry.release(getConfiguration());
+		}
+	}
+
+	/**
+	 * Creates the repository if it has not been created yet.
+	 * 
+	 * @throws RepositoryException if the repository could not be created
+	 */
+	private void ensureRepository() throws RepositoryException {
+		if (repository == null) {
+			createRepository();
+			
+			if (repository == null) {
+				throw new RepositoryException("Repository could not be created!", startupFailure);
 			}
 		}
 	}
 
 	/**
-	 * Gets the default session for the configured credentials.
+	 * Gets the default session for the configured credentials.<br>
+	 * <b>Note:</b> the default session is shared by all callers and sessions are
+	 * not thread-safe. Concurrent callers should use {@link #borrowSession()}.
 	 * 
 	 * @return the session
 	 * @throws RepositoryException
@@ -154,9 +290,7 @@ public class JCRRepository {
 	 */
 	public Session getDefaultSession() throws RepositoryException {
 		//check if the repository and session have been created
-		if (session == null) {
-			createRepository();
-		}
+		ensureRepository();
 		
 		//check if the session is still alive
 		if (session.isLive()) {
@@ -178,9 +312,7 @@ public class JCRRepository {
 	 */
 	public Session createSession() throws RepositoryException {
 		//check if repository has been created
-		if (repository == null) {
-			createRepository();
-		}
+		ensureRepository();
 		
 		return createSession(credentials);
 	}
@@ -193,7 +325,353 @@ public class JCRRepository {
 	 *             if an error occurred
 	 */
 	public Session createSession(Credentials credentials) throws RepositoryException {
-		return getRepository().login(credentials);
+		ensureRepository();
+		long start = JCRMetrics.start();
+		Session session = repository.login(credentials);
+		JCRMetrics.getInstance().recordLogin(start);
+		
+		return session;
+	}
+
+	/**
+	 * Borrows a session for the configured default credentials from the session
+	 * pool. The returned lease must be closed to return the session to the pool.
+	 * 
+	 * @return the session lease
+	 * @throws RepositoryException
+	 *             if no session could be borrowed
+	 */
+	public PooledSession borrowSession() throws RepositoryException {
+		return getSessionPool().borrowSession();
+	}
+
+	/**
+	 * Borrows a session for the specified credentials from the session pool. The
+	 * returned lease must be closed to return the session to the pool.
+	 * 
+	 * @param credentials the credentials
+	 * @return the session lease
+	 * @throws RepositoryException
+	 *             if no session could be borrowed
+	 */
+	public PooledSession borrowSession(Credentials credentials) throws RepositoryException {
+		return getSessionPool(credentials).borrowSession();
+	}
+
+	/**
+	 * Gets the session pool for the configured default credentials.
+	 * 
+	 * @return the session pool
+	 * @throws RepositoryException
+	 *             if the pool could not be created
+	 */
+	public JCRSessionPool getSessionPool() throws RepositoryException {
+		//check if repository and credentials have been created
+		ensureRepository();
+		
+		return getSessionPool(credentials);
+	}
+
+	/**
+	 * Gets the session pool for the specified credentials. One pool is created
+	 * per distinct credentials using the pool settings of the configuration.
+	 * 
+	 * @param credentials the credentials
+	 * @return the session pool
+	 * @throws RepositoryException
+	 *             if the pool could not be created
+	 */
+	public JCRSessionPool getSessionPool(Credentials credentials) throws RepositoryException {
+		Object key = poolKey(credentials);
+		JCRSessionPool pool = sessionPools.get(key);
+
+		if (pool == null) {
+			// create the repository before locking the pools to keep the lock order of shutdown()
+			ensureRepository();
+			
+			synchronized (sessionPools) {
+				pool = sessionPools.get(key);
+				
+				if (pool == null) {
+					JCRConfiguration config = getConfiguration();
+					pool = new JCRSessionPool(repository, credentials, config.getSessionPoolMinSize(), config.getSessionPoolMaxSize(), config.getSessionPoolMaxWait(), config.getSessionPoolIdleTimeout());
+					sessionPools.put(key, pool);
+				}
+			}
+		}
+		
+		return pool;
+	}
+
+	/**
+	 * Closes all session pools and logs out their idle sessions.
+	 */
+	public void closeSessionPools() {
+		synchronized (sessionPools) {
+			for (JCRSessionPool pool : sessionPools.values()) {
+				pool.close();
+			}
+			
+			sessionPools.clear();
+		}
+	}
+
+	/**
+	 * Executes the callback in the calling thread with a session borrowed from
+	 * the session pool for the configured default credentials. The session is
+	 * returned to the pool when the callback has finished. The number of
+	 * concurrently executed callbacks is limited by the
+	 * <code>maxConcurrentTasks</code> configuration.
+	 * 
+	 * @param callback the callback
+	 * @return the result of the callback
+	 * @throws RepositoryException
+	 *             if the callback failed or no session could be borrowed
+	 */
+	public <T> T execute(SessionCallback<T> callback) throws RepositoryException {
+		Semaphore permits = getTaskPermits();
+		
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RepositoryException("Interrupted while waiting to execute session callback!", e);
+		}
+		
+		try {
+			return executeInSession(callback);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Executes the callback asynchronously with a session borrowed from the
+	 * session pool for the configured default credentials. Callbacks are run
+	 * on virtual threads if the runtime supports them, otherwise on a thread
+	 * pool with <code>maxConcurrentTasks</code> threads. The number of
+	 * concurrently executed callbacks is limited by the
+	 * <code>maxConcurrentTasks</code> configuration.
+	 * 
+	 * @param callback the callback
+	 * @return the future completed with the result of the callback
+	 */
+	public <T> CompletableFuture<T> executeAsync(SessionCallback<T> callback) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		
+		try {
+			getTaskExecutor().execute(() -> {
+				try {
+					future.complete(execute(callback));
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		
+		return future;
+	}
+
+	private <T> T executeInSession(SessionCallback<T> callback) throws RepositoryException {
+		try (PooledSession pooled = borrowSession()) {
+			return callback.doInSession(pooled.getSession());
+		}
+	}
+
+	private Semaphore getTaskPermits() {
+		synchronized (sessionPools) {
+			if (taskPermits == null) {
+				taskPermits = new Semaphore(getConfiguration().getMaxConcurrentTasks(), true);
+			}
+			
+			return taskPermits;
+		}
+	}
+
+	private ExecutorService getTaskExecutor() {
+		synchronized (sessionPools) {
+			if (taskExecutor == null) {
+				taskExecutor = createTaskExecutor(getConfiguration().getMaxConcurrentTasks());
+			}
+			
+			return taskExecutor;
+		}
+	}
+
+	/**
+	 * Creates an executor starting a virtual thread per task if supported by
+	 * the runtime or a thread pool with the specified number of threads.
+	 * 
+	 * @param threads the number of threads of the fallback thread pool
+	 * @return the executor
+	 */
+	private static ExecutorService createTaskExecutor(int threads) {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOG.debug("Virtual threads are not supported - using a thread pool to execute session callbacks.");
+		}
+		
+		return Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "jcr-session-task");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Executes the JCR-SQL2 query in pages of the specified size and returns the
+	 * resulting nodes as lazy stream. The stream must be closed to log out its
+	 * sessions.
+	 * 
+	 * @param statement the JCR-SQL2 query statement
+	 * @param pageSize the number of rows queried per page
+	 * @return the stream of nodes
+	 * @throws RepositoryException
+	 *             if the sessions could not be created
+	 */
+	public Stream<Node> query(String statement, int pageSize) throws RepositoryException {
+		return query(statement, Query.JCR_SQL2, pageSize);
+	}
+
+	/**
+	 * Executes the query in pages of the specified size and returns the
+	 * resulting nodes as lazy stream. The next page is queried in the
+	 * background while the current page is consumed. The nodes are read with a
+	 * new session which is logged out together with the query session when the
+	 * stream is closed.
+	 * 
+	 * @param statement the query statement
+	 * @param language the query language
+	 * @param pageSize the number of rows queried per page
+	 * @return the stream of nodes
+	 * @throws RepositoryException
+	 *             if the sessions could not be created
+	 */
+	public Stream<Node> query(String statement, String language, int pageSize) throws RepositoryException {
+		Session session = createSession();
+		Session querySession = null;
+		
+		try {
+			querySession = createSession();
+			PagedQuerySpliterator spliterator = new PagedQuerySpliterator(session, querySession, statement, language, pageSize);
+			return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+		} catch (RepositoryException | RuntimeException e) {
+			session.logout();
+			
+			if (querySession != null) {
+				querySession.logout();
+			}
+			
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates a property cache which is invalidated by observation events of
+	 * its own session. The session is logged out when the cache is closed.
+	 * 
+	 * @param maxEntries the maximum number of cached entries
+	 * @return the property cache
+	 * @throws RepositoryException
+	 *             if the cache could not be created
+	 */
+	public JCRPropertyCache createPropertyCache(int maxEntries) throws RepositoryException {
+		Session observationSession = createSession();
+		
+		try {
+			return new JCRPropertyCache(observationSession, maxEntries, true);
+		} catch (RepositoryException | RuntimeException e) {
+			observationSession.logout();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates a cache for objects decoded from BINARY properties which is
+	 * invalidated by observation events of its own session. The session is
+	 * logged out when the cache is closed.
+	 * 
+	 * @param maxWeight the maximum encoded size in bytes of all cached binaries
+	 * @return the binary cache
+	 * @throws RepositoryException
+	 *             if the cache could not be created
+	 */
+	public JCRBinaryCache createBinaryCache(long maxWeight) throws RepositoryException {
+		Session observationSession = createSession();
+		
+		try {
+			return new JCRBinaryCache(observationSession, maxWeight, true);
+		} catch (RepositoryException | RuntimeException e) {
+			observationSession.logout();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates a cache for the graphs of versioned workflow models with its own
+	 * session, which also receives the observation events updating the base
+	 * versions of the cached models. The session is logged out when the cache
+	 * is closed.
+	 * 
+	 * @param maxEntries the maximum number of cached graphs
+	 * @return the workflow model cache
+	 * @throws RepositoryException
+	 *             if the cache could not be created
+	 */
+	public WorkflowModelCache createWorkflowModelCache(int maxEntries) throws RepositoryException {
+		Session cacheSession = createSession();
+		
+		try {
+			return new WorkflowModelCache(cacheSession, maxEntries, true);
+		} catch (RepositoryException | RuntimeException e) {
+			cacheSession.logout();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates a change feed with its own session. The feed has to be
+	 * configured and started by {@link JCRChangeFeed#start(long)}. The session
+	 * is logged out when the feed is closed.
+	 * 
+	 * @return the change feed
+	 * @throws RepositoryException
+	 *             if the session could not be created
+	 */
+	public JCRChangeFeed createChangeFeed() throws RepositoryException {
+		return new JCRChangeFeed(createSession(), true);
+	}
+
+	/**
+	 * Creates the key to identify the session pool for the specified
+	 * credentials. Simple credentials are identified by the user ID and the
+	 * SHA-256 digest of the password, so the password is not kept in clear
+	 * text. Credentials without value semantics are identified by instance.
+	 * 
+	 * @param credentials the credentials
+	 * @return the pool key
+	 */
+	private static Object poolKey(Credentials credentials) {
+		if (credentials instanceof SimpleCredentials) {
+			SimpleCredentials simple = (SimpleCredentials) credentials;
+			ByteBuffer password = StandardCharsets.UTF_8.encode(CharBuffer.wrap(simple.getPassword()));
+			MessageDigest digest = JCRHelper.newSha256Digest();
+			digest.update(password);
+			
+			if (password.hasArray()) {
+				Arrays.fill(password.array(), (byte) 0);
+			}
+			
+			return Arrays.asList(simple.getUserID(), JCRHelper.toHex(digest.digest()));
+		} else if (credentials instanceof GuestCredentials) {
+			return GuestCredentials.class;
+		}
+		
+		return credentials;
 	}
 
 	/**
@@ -213,9 +691,7 @@ public class JCRRepository {
 	public static void main(String[] args) throws Exception {
 		
 		Map<String, String> config = new HashMap<String, String>();
-		config.put("configFile", "./src/test/resources/repository.xml");
-		config.put("repositoryName", "test");
-		config.put("homeDir", "./target/repository");
+		config.put("profile", "in-memory");
 		config.put("user", "admin");
 		config.put("password", "admin");
 		config.put("cndFile", "./src/test/resources/nodetypes.cnd");
@@ -0,0 +1,70 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts the application scoped {@link JCRRepository} in the background as
+ * soon as the application scope of the CDI container has been initialized, so
+ * the first request to any injection point of the repository does not have to
+ * wait for the repository startup. The repository is shut down by the
+ * container when the application scope is destroyed. Repositories without a
+ * valid configuration are not started.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+@ApplicationScoped
+public class JCRRepositoryInitializer {
+	private static final Logger LOG = LoggerFactory.getLogger(JCRRepositoryInitializer.class);
+	@Inject
+	private JCRRepository repository;
+
+	/**
+	 * Starts the repository when the application has been deployed.
+	 *
+	 * @param event the initialized event of the application scope
+	 */
+	public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+		JCRConfiguration configuration = repository.getConfiguration();
+
+		if (configuration == null || (configuration.getUrl() == null && configuration.getConfigFile() == null && configuration.getRepositoryConfigBuilder() == null)) {
+			LOG.debug("No repository configured - skipping eager repository startup.");
+			return;
+		}
+
+		repository.startAsync().whenComplete((r, t) -> {
+			if (t == null) {
+				LOG.info("Repository started.");
+			} else {
+				LOG.error("Error starting repository!", t);
+			}
+		});
+	}
+
+	/**
+	 * @return the started repository
+	 */
+	public JCRRepository getRepository() {
+		return repository;
+	}
+}
@@ -0,0 +1,274 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.commons.JcrUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide registry of started repositories shared by all
+ * {@link JCRRepository} instances. Repositories are keyed by their normalized
+ * configuration, which is the URL for remote repositories, the config file,
+ * home directory and repository name for local repositories or the home
+ * directory for local repositories configured by a
+ * {@link RepositoryConfigBuilder}. In-memory repositories without home
+ * directory are keyed by their builder and use a temporary home directory,
+ * which is deleted on shutdown. Each
+ * {@link #acquire(JCRConfiguration)} must be paired with a
+ * {@link #release(JCRConfiguration)}; a local repository is shut down when
+ * the last reference has been released. A repository stays registered until
+ * its shutdown has completed, so acquiring it again in the meantime waits
+ * instead of starting a second repository on the same home directory.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class JCRRepositoryRegistry {
+	private static final Logger LOG = LoggerFactory.getLogger(JCRRepositoryRegistry.class);
+	private static final Map<String, Entry> ENTRIES = new HashMap<String, Entry>();
+
+	private JCRRepositoryRegistry() {
+	}
+
+	/**
+	 * Gets the repository for the configuration and increments its reference
+	 * count. The repository is started if it is not registered yet.
+	 *
+	 * @param configuration the configuration
+	 * @return the repository
+	 * @throws RepositoryException if the repository could not be started
+	 * @throws IllegalArgumentException if the configuration is not valid
+	 */
+	public static Repository acquire(JCRConfiguration configuration) throws RepositoryException {
+		String key = key(configuration);
+		Entry entry;
+
+		synchronized (ENTRIES) {
+			entry = ENTRIES.get(key);
+
+			// wait until a repository being shut down has released its home directory
+			while (entry != null && entry.shuttingDown) {
+				try {
+					ENTRIES.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RepositoryException("Interrupted while waiting for the shutdown of repository: " + key, e);
+				}
+
+				entry = ENTRIES.get(key);
+			}
+
+			if (entry == null) {
+				entry = new Entry();
+				ENTRIES.put(key, entry);
+			}
+
+			entry.references++;
+		}
+
+		// start outside of the registry lock so other repositories are not blocked
+		synchronized (entry) {
+			try {
+				if (entry.repository == null) {
+					entry.start(key, configuration);
+					LOG.info("Started repository: " + key);
+				}
+
+				return entry.repository;
+			} catch (RepositoryException | RuntimeException e) {
+				release(key);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Decrements the reference count of the repository for the configuration
+	 * and shuts the repository down if it is no longer referenced.
+	 *
+	 * @param configuration the configuration
+	 */
+	public static void release(JCRConfiguration configuration) {
+		release(key(configuration));
+	}
+
+	private static void release(String key) {
+		Entry entry;
+
+		synchronized (ENTRIES) {
+			entry = ENTRIES.get(key);
+
+			if (entry == null || --entry.references > 0) {
+				return;
+			}
+
+			entry.shuttingDown = true;
+		}
+
+		try {
+			synchronized (entry) {
+				entry.shutdown();
+				LOG.info("Shut down repository: " + key);
+			}
+		} finally {
+			synchronized (ENTRIES) {
+				ENTRIES.remove(key);
+				entry.shuttingDown = false;
+				ENTRIES.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @param configuration the configuration
+	 * @return the number of references to the repository for the configuration
+	 */
+	public static int getReferenceCount(JCRConfiguration configuration) {
+		synchronized (ENTRIES) {
+			Entry entry = ENTRIES.get(key(configuration));
+			return entry == null ? 0 : entry.references;
+		}
+	}
+
+	/**
+	 * Creates the normalized key identifying the repository of the
+	 * configuration.
+	 *
+	 * @param configuration the configuration
+	 * @return the key
+	 * @throws IllegalArgumentException if the configuration is not valid
+	 */
+	static String key(JCRConfiguration configuration) {
+		if (configuration.getUrl() != null) {
+			return "url:" + configuration.getUrl().trim();
+		} else if (configuration.getConfigFile() != null && configuration.getHomeDir() != null && configuration.getRepositoryName() != null) {
+			return "local:" + normalize(configuration.getConfigFile()) + '|' + normalize(configuration.getHomeDir()) + '|' + configuration.getRepositoryName().trim();
+		} else if (configuration.getConfigFile() == null && configuration.getRepositoryConfigBuilder() != null && configuration.getHomeDir() != null) {
+			return "built:" + normalize(configuration.getHomeDir());
+		} else if (configuration.getConfigFile() == null && configuration.getRepositoryConfigBuilder() != null && configuration.getRepositoryConfigBuilder().isInMemory()) {
+			return "memory:" + configuration.getRepositoryConfigBuilder().getInstanceId();
+		}
+
+		throw new IllegalArgumentException("Repository configuration is not valid!");
+	}
+
+	private static String normalize(String path) {
+		return Paths.get(path.trim()).toAbsolutePath().normalize().toString();
+	}
+
+	/**
+	 * A registered repository with its reference count.
+	 */
+	private static class Entry {
+		private int references;
+		private boolean shuttingDown;
+		private Repository repository;
+		private BindableRepositoryFactory factory;
+		private Path temporaryHome;
+
+		private void start(String key, JCRConfiguration configuration) throws RepositoryException {
+			if (configuration.getUrl() != null) {
+				// connect to a remote repository
+				repository = JcrUtils.getRepository(configuration.getUrl());
+			} else {
+				String configFile = configuration.getConfigFile();
+				String homeDir = configuration.getHomeDir();
+				String repositoryName = configuration.getRepositoryName();
+				
+				if (configFile == null) {
+					// write the configuration generated in code to the home directory
+					try {
+						if (homeDir == null) {
+							temporaryHome = Files.createTempDirectory("jcr-memory-");
+							homeDir = temporaryHome.toString();
+						}
+						
+						configFile = configuration.getRepositoryConfigBuilder().writeConfigFile(homeDir, configuration.getCndFiles()).toString();
+					} catch (IOException e) {
+						deleteTemporaryHome();
+						throw new RepositoryException("Error writing repository configuration to: " + homeDir, e);
+					} catch (RepositoryException e) {
+						deleteTemporaryHome();
+						throw e;
+					}
+					
+					if (repositoryName == null) {
+						repositoryName = "repository-" + Integer.toHexString(key.hashCode());
+					}
+				}
+				
+				// connect to a local repository
+				BindableRepositoryFactory factory = new BindableRepositoryFactory();
+				factory.setConfigFile(configFile);
+				factory.setHomeDir(homeDir);
+				factory.setRepositoryName(repositoryName);
+				factory.setOverwrite(false);
+
+				try {
+					repository = factory.getRepository();
+				} catch (RepositoryException e) {
+					deleteTemporaryHome();
+					throw e;
+				} catch (Exception e) {
+					deleteTemporaryHome();
+					throw new RepositoryException("Error creating local repository!", e);
+				}
+
+				this.factory = factory;
+			}
+		}
+
+		private void shutdown() {
+			if (factory != null) {
+				try {
+					factory.destroy();
+				} catch (Exception e) {
+					LOG.warn("Error shutting down repository!", e);
+				}
+			}
+
+			factory = null;
+			repository = null;
+			deleteTemporaryHome();
+		}
+
+		private void deleteTemporaryHome() {
+			if (temporaryHome == null) {
+				return;
+			}
+
+			try (Stream<Path> paths = Files.walk(temporaryHome)) {
+				paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			} catch (IOException e) {
+				LOG.warn("Error deleting temporary repository home: " + temporaryHome, e);
+			}
+
+			temporaryHome = null;
+		}
+	}
+}
@@ -0,0 +1,337 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of sessions which are logged in with the same credentials.<br>
+ * Sessions are borrowed with {@link #borrowSession()} and returned by closing
+ * the {@link PooledSession} lease (e.g. in a try-with-resources block). On
+ * return the transient changes of the session are discarded and sessions which
+ * are no longer alive are dropped. Idle sessions exceeding the minimum pool
+ * size are logged out after the idle timeout.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class JCRSessionPool {
+	private static final Logger LOG = LoggerFactory.getLogger(JCRSessionPool.class);
+	private final Repository repository;
+	private final Credentials credentials;
+	private final int minSize;
+	private final int maxSize;
+	private final long maxWaitMillis;
+	private final long idleTimeoutMillis;
+	private final Semaphore permits;
+	private final Deque<IdleSession> idleSessions = new ConcurrentLinkedDeque<IdleSession>();
+	private final AtomicInteger openSessions = new AtomicInteger();
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong loginCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong waitTimeoutCount = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final ScheduledExecutorService evictor;
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param repository the repository to log in to
+	 * @param credentials the credentials used for all sessions of this pool
+	 * @param minSize the minimum number of sessions kept open
+	 * @param maxSize the maximum number of sessions which can be borrowed at the same time
+	 * @param maxWaitMillis the maximum time to wait for a free session in milliseconds
+	 * @param idleTimeoutMillis the time after which idle sessions exceeding the minimum size are logged out (0 to disable eviction)
+	 * @throws RepositoryException if the initial sessions could not be created
+	 */
+	public JCRSessionPool(Repository repository, Credentials credentials, int minSize, int maxSize, long maxWaitMillis, long idleTimeoutMillis) throws RepositoryException {
+		if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid session pool size: min=" + minSize + ", max=" + maxSize);
+		}
+
+		this.repository = repository;
+		this.credentials = credentials;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.maxWaitMillis = maxWaitMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		permits = new Semaphore(maxSize, true);
+
+		// prefill the pool with the minimum number of sessions
+		try {
+			for (int i = 0; i < minSize; i++) {
+				idleSessions.offerFirst(new IdleSession(login()));
+			}
+		} catch (RepositoryException | RuntimeException e) {
+			// the pool is never handed out, so the sessions created so far must be logged out here
+			IdleSession idle;
+
+			while ((idle = idleSessions.pollFirst()) != null) {
+				discard(idle.session);
+			}
+
+			throw e;
+		}
+
+		if (idleTimeoutMillis > 0) {
+			evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "jcr-session-pool-evictor");
+				t.setDaemon(true);
+				return t;
+			});
+			long period = Math.max(1000L, idleTimeoutMillis / 2);
+			evictor.scheduleWithFixedDelay(this::evictIdleSessions, period, period, TimeUnit.MILLISECONDS);
+		} else {
+			evictor = null;
+		}
+	}
+
+	/**
+	 * Borrows a session from the pool. If all sessions are in use the call
+	 * blocks until a session is returned or the maximum wait time elapsed.
+	 *
+	 * @return the lease for the session which must be closed to return the session
+	 * @throws RepositoryException if no session became available in time or the login failed
+	 */
+	public PooledSession borrowSession() throws RepositoryException {
+		if (closed) {
+			throw new RepositoryException("Session pool has been closed!");
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+				waitTimeoutCount.incrementAndGet();
+				throw new RepositoryException("Timeout waiting " + maxWaitMillis + "ms for a session (max pool size " + maxSize + ")");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RepositoryException("Interrupted while waiting for a session", e);
+		}
+
+		long waited = System.nanoTime() - start;
+		totalWaitNanos.addAndGet(waited);
+		maxWaitNanos.accumulateAndGet(waited, Math::max);
+		borrowCount.incrementAndGet();
+
+		try {
+			IdleSession idle;
+
+			while ((idle = idleSessions.pollFirst()) != null) {
+				if (idle.session.isLive()) {
+					return new PooledSession(this, idle.session);
+				}
+
+				discard(idle.session);
+			}
+
+			return new PooledSession(this, login());
+		} catch (RepositoryException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the session to the pool. Pending changes are discarded.
+	 *
+	 * @param session the session borrowed from this pool
+	 */
+	void returnSession(Session session) {
+		try {
+			if (closed || !session.isLive()) {
+				discard(session);
+				return;
+			}
+
+			try {
+				session.refresh(false);
+				idleSessions.offerFirst(new IdleSession(session));
+			} catch (RepositoryException e) {
+				LOG.warn("Error refreshing returned session - discarding it!", e);
+				discard(session);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Logs out all idle sessions which have been unused longer than the idle
+	 * timeout while keeping at least the minimum number of sessions open.
+	 */
+	public void evictIdleSessions() {
+		long threshold = System.currentTimeMillis() - idleTimeoutMillis;
+		Iterator<IdleSession> it = idleSessions.descendingIterator();
+
+		while (it.hasNext() && openSessions.get() > minSize) {
+			IdleSession idle = it.next();
+
+			if (idle.lastUsed < threshold && idleSessions.removeFirstOccurrence(idle)) {
+				evictionCount.incrementAndGet();
+				discard(idle.session);
+			}
+		}
+	}
+
+	/**
+	 * Closes the pool and logs out all idle sessions. Borrowed sessions are
+	 * logged out when they are returned.
+	 */
+	public void close() {
+		closed = true;
+
+		if (evictor != null) {
+			evictor.shutdownNow();
+		}
+
+		IdleSession idle;
+
+		while ((idle = idleSessions.pollFirst()) != null) {
+			discard(idle.session);
+		}
+	}
+
+	private Session login() throws RepositoryException {
+		long start = JCRMetrics.start();
+		Session session = repository.login(credentials);
+		JCRMetrics.getInstance().recordLogin(start);
+		JCRMetrics.getInstance().pooledSessionOpened();
+		loginCount.incrementAndGet();
+		openSessions.incrementAndGet();
+		return session;
+	}
+
+	private void discard(Session session) {
+		openSessions.decrementAndGet();
+		JCRMetrics.getInstance().pooledSessionClosed();
+
+		try {
+			if (session.isLive()) {
+				session.logout();
+			}
+		} catch (RuntimeException e) {
+			LOG.warn("Error logging out pooled session!", e);
+		}
+	}
+
+	/**
+	 * @return the minimum pool size
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * @return the maximum pool size
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of currently open (idle and borrowed) sessions
+	 */
+	public int getOpenCount() {
+		return openSessions.get();
+	}
+
+	/**
+	 * @return the number of idle sessions
+	 */
+	public int getIdleCount() {
+		return idleSessions.size();
+	}
+
+	/**
+	 * @return the number of borrowed sessions
+	 */
+	public int getActiveCount() {
+		return maxSize - permits.availablePermits();
+	}
+
+	/**
+	 * @return the total number of borrowed sessions
+	 */
+	public long getBorrowCount() {
+		return borrowCount.get();
+	}
+
+	/**
+	 * @return the total number of logins performed by the pool
+	 */
+	public long getLoginCount() {
+		return loginCount.get();
+	}
+
+	/**
+	 * @return the number of sessions evicted because they were idle too long
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * @return the number of borrow attempts which timed out
+	 */
+	public long getWaitTimeoutCount() {
+		return waitTimeoutCount.get();
+	}
+
+	/**
+	 * @return the total time in milliseconds callers waited for a session
+	 */
+	public long getTotalWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+	}
+
+	/**
+	 * @return the maximum time in milliseconds a caller waited for a session
+	 */
+	public long getMaxWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+	}
+
+	/**
+	 * Idle session with the time it was returned to the pool.
+	 */
+	private static class IdleSession {
+		private final Session session;
+		private final long lastUsed = System.currentTimeMillis();
+
+		private IdleSession(Session session) {
+			this.session = session;
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Traverses the subtree of a node depth-first as {@link Stream} of nodes. The
+ * traversal can be limited to a maximum depth relative to the root node and
+ * filtered by node types. The filter only decides which nodes are part of the
+ * stream; the children of filtered nodes are still traversed.<br>
+ * A parallel stream created by {@link #parallelStream(JCRRepository, String)}
+ * splits the pending nodes at child boundaries. Each split reads its nodes
+ * with its own session created by {@link JCRRepository#createSession()}, so
+ * nodes of a parallel stream must only be used by the thread processing them.
+ * The number of sessions is bounded by <code>maxSessions</code> and all of
+ * them are logged out when the stream is closed, so the stream should be used
+ * in a try-with-resources block.<br>
+ * Errors reading the repository are thrown as {@link IllegalStateException}.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class JCRTraversal {
+	private static final Logger LOG = LoggerFactory.getLogger(JCRTraversal.class);
+	private int maxDepth = Integer.MAX_VALUE;
+	private String[] nodeTypes;
+	private int maxSessions = ForkJoinPool.getCommonPoolParallelism() * 2;
+
+	/**
+	 * Creates a sequential stream of the subtree of the specified node
+	 * including the node itself using the session of the node.
+	 *
+	 * @param root the root node of the traversal
+	 * @return the stream of nodes
+	 */
+	public Stream<Node> stream(Node root) {
+		NodeSpliterator spliterator = new NodeSpliterator(root, null, null, null);
+		return StreamSupport.stream(spliterator, false);
+	}
+
+	/**
+	 * Creates a parallel stream of the subtree of the node with the specified
+	 * path including the node itself. The stream must be closed to log out the
+	 * sessions used for the traversal.
+	 *
+	 * @param repository the repository to create the sessions with
+	 * @param rootPath the absolute path of the root node of the traversal
+	 * @return the stream of nodes
+	 * @throws RepositoryException if the root node could not be read
+	 */
+	public Stream<Node> parallelStream(JCRRepository repository, String rootPath) throws RepositoryException {
+		Session session = repository.createSession();
+		List<Session> sessions = new ArrayList<Session>();
+		sessions.add(session);
+
+		try {
+			Node root = session.getNode(rootPath);
+			NodeSpliterator spliterator = new NodeSpliterator(root, repository, sessions, new AtomicInteger(maxSessions - 1));
+			return StreamSupport.stream(spliterator, true).onClose(() -> logout(sessions));
+		} catch (RepositoryException | RuntimeException e) {
+			session.logout();
+			throw e;
+		}
+	}
+
+	private static void logout(List<Session> sessions) {
+		synchronized (sessions) {
+			for (Session session : sessions) {
+				try {
+					session.logout();
+				} catch (RuntimeException e) {
+					LOG.warn("Error logging out traversal session!", e);
+				}
+			}
+
+			sessions.clear();
+		}
+	}
+
+	private boolean matches(Node node) throws RepositoryException {
+		if (nodeTypes == null || nodeTypes.length == 0) {
+			return true;
+		}
+
+		for (String nodeType : nodeTypes) {
+			if (node.isNodeType(nodeType)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @param maxDepth the maximum depth relative to the root node (0 only returns the root node)
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * @param nodeTypes the node types of the nodes to include in the stream or none to include all nodes
+	 */
+	public void setNodeTypes(String... nodeTypes) {
+		this.nodeTypes = nodeTypes;
+	}
+
+	/**
+	 * @param maxSessions the maximum number of sessions used by a parallel stream
+	 */
+	public void setMaxSessions(int maxSessions) {
+		this.maxSessions = maxSessions;
+	}
+
+	/**
+	 * A node which has still to be returned and whose children might still
+	 * have to be traversed.
+	 */
+	private static class PendingNode {
+		private final String path;
+		private final int depth;
+		private Node node;
+		private boolean expanded;
+
+		private PendingNode(String path, int depth, Node node, boolean expanded) {
+			this.path = path;
+			this.depth = depth;
+			this.node = node;
+			this.expanded = expanded;
+		}
+	}
+
+	/**
+	 * Spliterator over the pending nodes of one session.
+	 */
+	private class NodeSpliterator implements Spliterator<Node> {
+		private final Session session;
+		private final JCRRepository repository;
+		private final List<Session> sessions;
+		private final AtomicInteger splitBudget;
+		private final Deque<PendingNode> pending = new ArrayDeque<PendingNode>();
+
+		private NodeSpliterator(Node root, JCRRepository repository, List<Session> sessions, AtomicInteger splitBudget) {
+			this(getSession(root), repository, sessions, splitBudget);
+
+			try {
+				pending.add(new PendingNode(root.getPath(), 0, root, false));
+			} catch (RepositoryException e) {
+				throw new IllegalStateException("Error reading root node of traversal!", e);
+			}
+		}
+
+		private NodeSpliterator(Session session, JCRRepository repository, List<Session> sessions, AtomicInteger splitBudget) {
+			this.session = session;
+			this.repository = repository;
+			this.sessions = sessions;
+			this.splitBudget = splitBudget;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Node> action) {
+			try {
+				PendingNode next;
+
+				while ((next = pending.pollLast()) != null) {
+					Node node = resolve(next);
+
+					if (!next.expanded) {
+						expand(next);
+					}
+
+					if (matches(node)) {
+						action.accept(node);
+						return true;
+					}
+				}
+
+				return false;
+			} catch (RepositoryException e) {
+				throw new IllegalStateException("Error traversing nodes!", e);
+			}
+		}
+
+		@Override
+		public Spliterator<Node> trySplit() {
+			if (repository == null || splitBudget.get() <= 0) {
+				return null;
+			}
+
+			try {
+				// expand a single node to be able to split at its children
+				if (pending.size() == 1 && !pending.peekFirst().expanded) {
+					expand(pending.peekFirst());
+				}
+
+				if (pending.size() < 2 || splitBudget.getAndDecrement() <= 0) {
+					return null;
+				}
+
+				Session splitSession = repository.createSession();
+
+				synchronized (sessions) {
+					sessions.add(splitSession);
+				}
+
+				NodeSpliterator split = new NodeSpliterator(splitSession, repository, sessions, splitBudget);
+				int count = pending.size() / 2;
+
+				// hand over the shallowest nodes which have the largest subtrees
+				for (int i = 0; i < count; i++) {
+					PendingNode p = pending.pollFirst();
+					split.pending.addLast(new PendingNode(p.path, p.depth, null, p.expanded));
+				}
+
+				return split;
+			} catch (RepositoryException e) {
+				LOG.warn("Error splitting traversal - continuing sequentially!", e);
+				return null;
+			}
+		}
+
+		/**
+		 * Adds the children of the node to the pending nodes.
+		 */
+		private void expand(PendingNode pendingNode) throws RepositoryException {
+			pendingNode.expanded = true;
+
+			if (pendingNode.depth >= maxDepth) {
+				return;
+			}
+
+			Node node = resolve(pendingNode);
+			NodeIterator it = node.getNodes();
+			List<PendingNode> children = new ArrayList<PendingNode>();
+
+			while (it.hasNext()) {
+				Node child = it.nextNode();
+				children.add(new PendingNode(child.getPath(), pendingNode.depth + 1, child, false));
+			}
+
+			// add in reverse order so the first child is traversed first
+			for (int i = children.size() - 1; i >= 0; i--) {
+				pending.addLast(children.get(i));
+			}
+		}
+
+		private Node resolve(PendingNode pendingNode) throws RepositoryException {
+			if (pendingNode.node == null) {
+				pendingNode.node = session.getNode(pendingNode.path);
+			}
+
+			return pendingNode.node;
+		}
+
+		@Override
+		public long estimateSize() {
+			return pending.isEmpty() ? 0L : Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return NONNULL | DISTINCT;
+		}
+	}
+
+	private static Session getSession(Node node) {
+		try {
+			return node.getSession();
+		} catch (RepositoryException e) {
+			throw new IllegalStateException("Error reading session of node!", e);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Values are counted in
+ * logarithmic buckets with four sub-buckets per power of two, so percentiles
+ * are reported with an error of at most 25%. The maximum is tracked exactly.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private final AtomicLongArray buckets = new AtomicLongArray(SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 * 
+	 * @param nanos the latency in nanoseconds
+	 */
+	void record(long nanos) {
+		if (nanos < 0L) {
+			nanos = 0L;
+		}
+
+		buckets.incrementAndGet(bucketIndex(nanos));
+		count.increment();
+		sum.add(nanos);
+
+		if (nanos > max.get()) {
+			max.accumulateAndGet(nanos, Math::max);
+		}
+	}
+
+	private static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+		long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		long lower = (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+		return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1L;
+	}
+
+	/**
+	 * Gets the latency below which the specified fraction of the recorded
+	 * latencies lie.
+	 * 
+	 * @param fraction the fraction between 0 and 1
+	 * @return the latency in nanoseconds
+	 */
+	long getPercentile(double fraction) {
+		long total = 0L;
+		long[] counts = new long[buckets.length()];
+
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+
+		if (total == 0L) {
+			return 0L;
+		}
+
+		long rank = (long) Math.ceil(fraction * total);
+		long seen = 0L;
+
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+
+			if (seen >= rank) {
+				return Math.min(bucketUpperBound(i), max.get());
+			}
+		}
+
+		return max.get();
+	}
+
+	/**
+	 * Creates a snapshot of the histogram.
+	 * 
+	 * @return the snapshot
+	 */
+	LatencySnapshot snapshot() {
+		long n = count.sum();
+		return new LatencySnapshot(n, n == 0L ? 0L : sum.sum() / n, getPercentile(0.5d), getPercentile(0.99d), max.get());
+	}
+
+	/**
+	 * Resets all recorded values.
+	 */
+	void reset() {
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0L);
+		}
+
+		count.reset();
+		sum.reset();
+		max.set(0L);
+	}
+}
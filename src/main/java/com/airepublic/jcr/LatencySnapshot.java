@@ -0,0 +1,87 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+/**
+ * Snapshot of the latencies recorded for an operation. All latencies are
+ * reported in microseconds.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class LatencySnapshot {
+	private final long count;
+	private final long meanNanos;
+	private final long p50Nanos;
+	private final long p99Nanos;
+	private final long maxNanos;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param count the number of recorded operations
+	 * @param meanNanos the mean latency in nanoseconds
+	 * @param p50Nanos the median latency in nanoseconds
+	 * @param p99Nanos the 99th percentile latency in nanoseconds
+	 * @param maxNanos the maximum latency in nanoseconds
+	 */
+	LatencySnapshot(long count, long meanNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+		this.count = count;
+		this.meanNanos = meanNanos;
+		this.p50Nanos = p50Nanos;
+		this.p99Nanos = p99Nanos;
+		this.maxNanos = maxNanos;
+	}
+
+	/**
+	 * @return the number of recorded operations
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean latency in microseconds
+	 */
+	public double getMeanMicros() {
+		return meanNanos / 1000d;
+	}
+
+	/**
+	 * @return the median latency in microseconds
+	 */
+	public double getP50Micros() {
+		return p50Nanos / 1000d;
+	}
+
+	/**
+	 * @return the 99th percentile latency in microseconds
+	 */
+	public double getP99Micros() {
+		return p99Nanos / 1000d;
+	}
+
+	/**
+	 * @return the maximum latency in microseconds
+	 */
+	public double getMaxMicros() {
+		return maxNanos / 1000d;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + getMeanMicros() + "us, p50=" + getP50Micros() + "us, p99=" + getP99Micros() + "us, max=" + getMaxMicros() + "us";
+	}
+}
@@ -0,0 +1,213 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+/**
+ * Unmodifiable map view of the properties of a node matching a prefix as
+ * returned by {@link JCRHelper#getPropertiesLazy(Node, String)}. The property
+ * names are read when the map is created, but each value is only read and
+ * decoded by {@link JCRHelper#getProperty(Node, String)} on first access.
+ * Values are kept in a plain array, so no entry objects are held by the map.<br>
+ * The map reads from the session of the node and must therefore only be used
+ * while the session is alive and not concurrently. Use {@link #detach()} to
+ * get a copy with all values resolved. Errors reading a value are thrown as
+ * {@link IllegalStateException}.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class LazyPropertyMap extends AbstractMap<String, Comparable<?>> {
+	private static final Object UNRESOLVED = new Object();
+	private final Node node;
+	private final String prefix;
+	private final String[] names;
+	private final Object[] values;
+	private Set<Map.Entry<String, Comparable<?>>> entrySet;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param node the node
+	 * @param prefix the property prefix
+	 * @param names the property names without the prefix
+	 */
+	LazyPropertyMap(Node node, String prefix, String[] names) {
+		this.node = node;
+		this.prefix = prefix;
+		this.names = names;
+		values = new Object[names.length];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = UNRESOLVED;
+		}
+	}
+
+	@Override
+	public int size() {
+		return names.length;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public Comparable<?> get(Object key) {
+		int index = indexOf(key);
+		return index < 0 ? null : valueAt(index);
+	}
+
+	@Override
+	public Set<Map.Entry<String, Comparable<?>>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new EntrySet();
+		}
+
+		return entrySet;
+	}
+
+	/**
+	 * Creates a copy of this map which is detached from the session with all
+	 * values resolved.
+	 *
+	 * @return the modifiable copy of the properties
+	 */
+	public Map<String, Comparable<?>> detach() {
+		Map<String, Comparable<?>> copy = new LinkedHashMap<String, Comparable<?>>();
+
+		for (int i = 0; i < names.length; i++) {
+			copy.put(names[i], valueAt(i));
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Checks whether the value of the specified property has already been read.
+	 *
+	 * @param key the property name without the prefix
+	 * @return true if the value has been read
+	 */
+	public boolean isResolved(String key) {
+		int index = indexOf(key);
+		return index >= 0 && values[index] != UNRESOLVED;
+	}
+
+	private int indexOf(Object key) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(key)) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private Comparable<?> valueAt(int index) {
+		Object value = values[index];
+
+		if (value == UNRESOLVED) {
+			try {
+				value = JCRHelper.getProperty(node, prefix + names[index]);
+			} catch (RepositoryException e) {
+				throw new IllegalStateException("Error reading property '" + prefix + names[index] + "' from node: " + node, e);
+			}
+
+			values[index] = value;
+		}
+
+		return (Comparable<?>) value;
+	}
+
+	/**
+	 * Entry set view resolving the values when they are accessed.
+	 */
+	private class EntrySet extends AbstractSet<Map.Entry<String, Comparable<?>>> {
+		@Override
+		public int size() {
+			return names.length;
+		}
+
+		@Override
+		public Iterator<Map.Entry<String, Comparable<?>>> iterator() {
+			return new Iterator<Map.Entry<String, Comparable<?>>>() {
+				private int index = 0;
+
+				@Override
+				public boolean hasNext() {
+					return index < names.length;
+				}
+
+				@Override
+				public Map.Entry<String, Comparable<?>> next() {
+					if (index >= names.length) {
+						throw new NoSuchElementException();
+					}
+
+					final int i = index++;
+
+					return new Map.Entry<String, Comparable<?>>() {
+						@Override
+						public String getKey() {
+							return names[i];
+						}
+
+						@Override
+						public Comparable<?> getValue() {
+							return valueAt(i);
+						}
+
+						@Override
+						public Comparable<?> setValue(Comparable<?> value) {
+							throw new UnsupportedOperationException();
+						}
+
+						@Override
+						public boolean equals(Object o) {
+							if (!(o instanceof Map.Entry)) {
+								return false;
+							}
+
+							Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+							return names[i].equals(e.getKey()) && (getValue() == null ? e.getValue() == null : getValue().equals(e.getValue()));
+						}
+
+						@Override
+						public int hashCode() {
+							return names[i].hashCode() ^ (getValue() == null ? 0 : getValue().hashCode());
+						}
+
+						@Override
+						public String toString() {
+							return names[i] + "=" + getValue();
+						}
+					};
+				}
+			};
+		}
+	}
+}
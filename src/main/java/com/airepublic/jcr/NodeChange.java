@@ -0,0 +1,128 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.jcr.observation.Event;
+
+/**
+ * The coalesced changes of one node delivered by a {@link JCRChangeFeed}. All
+ * observation events of the node and its properties within a delivery window
+ * are combined into one change.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class NodeChange {
+	private final String identifier;
+	private final String path;
+	private final int eventTypes;
+	private final boolean removed;
+	private final Set<String> propertyNames;
+	private final long date;
+	private final String userID;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param identifier the node identifier
+	 * @param path the last known path of the node
+	 * @param eventTypes the combined {@link Event} types
+	 * @param removed flag whether the node was removed by the last event
+	 * @param propertyNames the names of the added, changed or removed properties
+	 * @param date the date of the last event
+	 * @param userID the user of the last event
+	 */
+	NodeChange(String identifier, String path, int eventTypes, boolean removed, Set<String> propertyNames, long date, String userID) {
+		this.identifier = identifier;
+		this.path = path;
+		this.eventTypes = eventTypes;
+		this.removed = removed;
+		this.propertyNames = Collections.unmodifiableSet(new TreeSet<String>(propertyNames));
+		this.date = date;
+		this.userID = userID;
+	}
+
+	/**
+	 * @return the node identifier
+	 */
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * @return the last known path of the node
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the combined {@link Event} types of all coalesced events
+	 */
+	public int getEventTypes() {
+		return eventTypes;
+	}
+
+	/**
+	 * @return true if the node was added within the window
+	 */
+	public boolean isAdded() {
+		return (eventTypes & Event.NODE_ADDED) != 0 && !removed;
+	}
+
+	/**
+	 * @return true if the node does no longer exist at the end of the window
+	 */
+	public boolean isRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return true if the node was moved within the window
+	 */
+	public boolean isMoved() {
+		return (eventTypes & Event.NODE_MOVED) != 0;
+	}
+
+	/**
+	 * @return the names of the added, changed or removed properties
+	 */
+	public Set<String> getPropertyNames() {
+		return propertyNames;
+	}
+
+	/**
+	 * @return the date of the last coalesced event in ms
+	 */
+	public long getDate() {
+		return date;
+	}
+
+	/**
+	 * @return the user of the last coalesced event
+	 */
+	public String getUserID() {
+		return userID;
+	}
+
+	@Override
+	public String toString() {
+		return "NodeChange[" + path + ", types=" + eventTypes + (removed ? ", removed" : "") + ", properties=" + propertyNames + "]";
+	}
+}
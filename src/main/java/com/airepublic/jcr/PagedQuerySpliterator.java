@@ -0,0 +1,181 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.RowIterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spliterator executing a query in pages of a fixed size using
+ * {@link Query#setLimit(long)} and {@link Query#setOffset(long)}. While the
+ * nodes of the current page are consumed, the next page is queried by a
+ * background thread with its own session. Only the paths of the current and
+ * the next page are held in memory and the nodes are read with the consumer
+ * session when they are returned. Nodes removed after their page has been
+ * queried are skipped.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+class PagedQuerySpliterator implements Spliterator<Node> {
+	private static final Logger LOG = LoggerFactory.getLogger(PagedQuerySpliterator.class);
+	private final Session session;
+	private final Session querySession;
+	private final String statement;
+	private final String language;
+	private final int pageSize;
+	private final ExecutorService prefetcher;
+	private Future<List<String>> nextPage;
+	private Iterator<String> currentPage;
+	private long offset = 0L;
+	private boolean lastPage = false;
+
+	/**
+	 * Constructor. The first page is queried immediately.
+	 *
+	 * @param session the session to read the nodes with
+	 * @param querySession the session used by the background thread to execute the queries
+	 * @param statement the query statement
+	 * @param language the query language
+	 * @param pageSize the number of rows per page
+	 */
+	PagedQuerySpliterator(Session session, Session querySession, String statement, String language, int pageSize) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Page size must be greater than 0!");
+		}
+
+		this.session = session;
+		this.querySession = querySession;
+		this.statement = statement;
+		this.language = language;
+		this.pageSize = pageSize;
+		prefetcher = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "jcr-query-prefetch");
+			t.setDaemon(true);
+			return t;
+		});
+		nextPage = prefetch();
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Node> action) {
+		while (true) {
+			if (currentPage == null || !currentPage.hasNext()) {
+				if (lastPage || nextPage == null) {
+					return false;
+				}
+
+				List<String> paths = awaitNextPage();
+				lastPage = paths.size() < pageSize;
+				nextPage = lastPage ? null : prefetch();
+				currentPage = paths.iterator();
+				continue;
+			}
+
+			String path = currentPage.next();
+
+			try {
+				action.accept(session.getNode(path));
+				return true;
+			} catch (PathNotFoundException e) {
+				LOG.debug("Skipping removed query result: " + path);
+			} catch (RepositoryException e) {
+				throw new IllegalStateException("Error reading query result: " + path, e);
+			}
+		}
+	}
+
+	private Future<List<String>> prefetch() {
+		final long pageOffset = offset;
+		offset += pageSize;
+
+		return prefetcher.submit(() -> {
+			QueryManager queryManager = querySession.getWorkspace().getQueryManager();
+			Query query = queryManager.createQuery(statement, language);
+			query.setOffset(pageOffset);
+			query.setLimit(pageSize);
+			RowIterator rows = query.execute().getRows();
+			List<String> paths = new ArrayList<String>(pageSize);
+
+			while (rows.hasNext()) {
+				paths.add(rows.nextRow().getPath());
+			}
+
+			return paths;
+		});
+	}
+
+	private List<String> awaitNextPage() {
+		try {
+			return nextPage.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for query page!", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error executing query page at offset " + (offset - pageSize) + ": " + statement, e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the prefetching and logs out both sessions.
+	 */
+	void close() {
+		prefetcher.shutdownNow();
+
+		try {
+			// do not log out the query session while a page is still being queried
+			prefetcher.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		querySession.logout();
+		session.logout();
+	}
+
+	@Override
+	public Spliterator<Node> trySplit() {
+		return null;
+	}
+
+	@Override
+	public long estimateSize() {
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | NONNULL;
+	}
+}
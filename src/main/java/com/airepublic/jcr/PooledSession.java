@@ -0,0 +1,66 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import javax.jcr.Session;
+
+/**
+ * Lease of a session borrowed from a {@link JCRSessionPool}. Closing the lease
+ * returns the session to the pool, so it is best used in a try-with-resources
+ * block. The session must not be used after the lease has been closed.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class PooledSession implements AutoCloseable {
+	private final JCRSessionPool pool;
+	private Session session;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pool the pool the session was borrowed from
+	 * @param session the borrowed session
+	 */
+	PooledSession(JCRSessionPool pool, Session session) {
+		this.pool = pool;
+		this.session = session;
+	}
+
+	/**
+	 * Gets the borrowed session.
+	 *
+	 * @return the session
+	 */
+	public Session getSession() {
+		if (session == null) {
+			throw new IllegalStateException("Pooled session has already been returned!");
+		}
+
+		return session;
+	}
+
+	/**
+	 * Returns the session to the pool.
+	 */
+	@Override
+	public void close() {
+		if (session != null) {
+			Session s = session;
+			session = null;
+			pool.returnSession(s);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The names of the properties (without prefix) which have been added, changed
+ * or removed by {@link JCRHelper#updateProperties(javax.jcr.Node, String, java.util.Map)}.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class PropertyChanges {
+	private final Set<String> added = new LinkedHashSet<String>();
+	private final Set<String> changed = new LinkedHashSet<String>();
+	private final Set<String> removed = new LinkedHashSet<String>();
+
+	void added(String name) {
+		added.add(name);
+	}
+
+	void changed(String name) {
+		changed.add(name);
+	}
+
+	void removed(String name) {
+		removed.add(name);
+	}
+
+	/**
+	 * @return the names of the added properties
+	 */
+	public Set<String> getAdded() {
+		return Collections.unmodifiableSet(added);
+	}
+
+	/**
+	 * @return the names of the properties whose value has changed
+	 */
+	public Set<String> getChanged() {
+		return Collections.unmodifiableSet(changed);
+	}
+
+	/**
+	 * @return the names of the removed properties
+	 */
+	public Set<String> getRemoved() {
+		return Collections.unmodifiableSet(removed);
+	}
+
+	/**
+	 * @return true if no property has been added, changed or removed
+	 */
+	public boolean isEmpty() {
+		return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "PropertyChanges [added=" + added + ", changed=" + changed + ", removed=" + removed + "]";
+	}
+}
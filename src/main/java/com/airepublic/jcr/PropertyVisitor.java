@@ -0,0 +1,132 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.math.BigDecimal;
+import java.util.Calendar;
+
+import javax.jcr.Binary;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+
+/**
+ * Callback receiving property values by
+ * {@link JCRHelper#visitProperties(javax.jcr.Node, String, PropertyVisitor)}
+ * with one method per {@link PropertyType}. LONG, DOUBLE and BOOLEAN values
+ * are passed as primitives, so no boxed values are created. BINARY values are
+ * passed undecoded; use {@link JCRHelper#createObject(javax.jcr.Session, Binary)}
+ * to decode them. Multi-valued properties are visited once per value. All
+ * methods do nothing by default.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public interface PropertyVisitor {
+	/**
+	 * @param name the property name without the prefix
+	 * @param value the STRING value
+	 * @throws RepositoryException if the value could not be processed
+	 */
+	default void visitString(String name, String value) throws RepositoryException {
+	}
+
+	/**
+	 * @param name the property name without the prefix
+	 * @param value the BINARY value which is only valid during the call
+	 * @throws RepositoryException if the value could not be processed
+	 */
+	default void visitBinary(String name, Binary value) throws RepositoryException {
+	}
+
+	/**
+	 * @param name the property name without the prefix
+	 * @param value the LONG value
+	 * @throws RepositoryException if the value could not be processed
+	 */
+	default void visitLong(String name, long value) throws RepositoryException {
+	}
+
+	/**
+	 * @param name the property name without the prefix
+	 * @param value the DOUBLE value
+	 * @throws RepositoryException if the value could not be processed
+	 */
+	default void visitDouble(String name, double value) throws RepositoryException {
+	}
+
+	/**
+	 * @param name the property name without the prefix
+	 * @param value the DATE value
+	 * @throws RepositoryException if the value could not be processed
+	 */
+	default void visitDate(String name, Calendar value) throws RepositoryException {
+	}
+
+	/**
+	 * @param name the property name without the prefix
+	 * @param value the BOOLEAN value
+	 * @throws RepositoryException if the value could not be processed
+	 */
+	default void visitBoolean(String name, boolean value) throws RepositoryException {
+	}
+
+	/**
+	 * @param name the property name without the prefix
+	 * @param value the NAME value
+	 * @throws RepositoryException if the value could not be processed
+	 */
+	default void visitName(String name, String value) throws RepositoryException {
+	}
+
+	/**
+	 * @param name the property name without the prefix
+	 * @param value the PATH value
+	 * @throws RepositoryException if the value could not be processed
+	 */
+	default void visitPath(String name, String value) throws RepositoryException {
+	}
+
+	/**
+	 * @param name the property name without the prefix
+	 * @param identifier the identifier of the referenced node
+	 * @throws RepositoryException if the value could not be processed
+	 */
+	default void visitReference(String name, String identifier) throws RepositoryException {
+	}
+
+	/**
+	 * @param name the property name without the prefix
+	 * @param identifier the identifier of the referenced node
+	 * @throws RepositoryException if the value could not be processed
+	 */
+	default void visitWeakReference(String name, String identifier) throws RepositoryException {
+	}
+
+	/**
+	 * @param name the property name without the prefix
+	 * @param value the URI value
+	 * @throws RepositoryException if the value could not be processed
+	 */
+	default void visitUri(String name, String value) throws RepositoryException {
+	}
+
+	/**
+	 * @param name the property name without the prefix
+	 * @param value the DECIMAL value
+	 * @throws RepositoryException if the value could not be processed
+	 */
+	default void visitDecimal(String name, BigDecimal value) throws RepositoryException {
+	}
+}
@@ -0,0 +1,467 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+
+/**
+ * Builds the configuration of a local Jackrabbit repository in code instead
+ * of a hand-edited <code>repository.xml</code>. The configuration corresponds
+ * to the shipped example configuration with a Derby bundle persistence
+ * manager and Lucene search index, tuned by the settings of this builder.
+ * Predefined settings can be applied by a {@link Profile}. Settings with a
+ * negative value are not written, so the Jackrabbit default applies.<br>
+ * In in-memory mode the file systems and the persistence managers keep all
+ * content in memory and the search index uses a RAM directory or is
+ * disabled, so nothing but the repository lock file is written to disk and
+ * all content is lost when the repository is shut down. No home directory is
+ * needed in this mode; a temporary one is used if none is configured.<br>
+ * If an {@link IndexingConfigurationGenerator} is set, an indexing
+ * configuration is generated from the CND files of the repository, so the
+ * workspace search index skips binaries and properties which are never
+ * queried.<br>
+ * The generated configuration is written to the repository home directory
+ * when the repository is started, so the effective configuration can be
+ * inspected there.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class RepositoryConfigBuilder {
+	public static final String CONFIG_FILE_NAME = "repository.xml";
+	public static final String INDEXING_CONFIG_FILE_NAME = "indexing_configuration.xml";
+	public static final String DERBY_PERSISTENCE_MANAGER = "org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager";
+	public static final String IN_MEMORY_PERSISTENCE_MANAGER = "org.apache.jackrabbit.core.persistence.mem.InMemBundlePersistenceManager";
+	private static final String LOCAL_FILE_SYSTEM = "org.apache.jackrabbit.core.fs.local.LocalFileSystem";
+	private static final String MEMORY_FILE_SYSTEM = "org.apache.jackrabbit.core.fs.mem.MemoryFileSystem";
+	private static final String RAM_DIRECTORY_MANAGER = "org.apache.jackrabbit.core.query.lucene.directory.RAMDirectoryManager";
+	private static final AtomicLong INSTANCES = new AtomicLong();
+	private final long instanceId = INSTANCES.incrementAndGet();
+	private String persistenceManagerClass = DERBY_PERSISTENCE_MANAGER;
+	private final Map<String, String> persistenceManagerParameters = new LinkedHashMap<String, String>();
+	private int bundleCacheSize = -1;
+	private boolean dataStoreEnabled = false;
+	private int dataStoreMinRecordLength = -1;
+	private int resultFetchSize = -1;
+	private int searchCacheSize = -1;
+	private int extractorPoolSize = -1;
+	private boolean inMemory = false;
+	private boolean searchIndexEnabled = true;
+	private IndexingConfigurationGenerator indexingConfigurationGenerator;
+
+	/**
+	 * Predefined tuning profiles.
+	 */
+	public enum Profile {
+		/** the settings of the shipped example configuration */
+		DEFAULT,
+		/** larger Derby pages, binaries in a data store to keep bundles small, asynchronous text extraction and a generated indexing configuration */
+		WRITE_HEAVY,
+		/** large bundle, page and search caches and larger query result batches */
+		READ_HEAVY,
+		/** small caches, binaries in a data store, synchronous text extraction and a generated indexing configuration */
+		LOW_MEMORY,
+		/** all content in memory with a RAM search index and a generated indexing configuration for ephemeral repositories and tests */
+		IN_MEMORY;
+
+		/**
+		 * Gets the profile by its name, e.g. <code>write-heavy</code>.
+		 *
+		 * @param name the case-insensitive profile name
+		 * @return the profile
+		 * @throws IllegalArgumentException if no profile has the name
+		 */
+		public static Profile forName(String name) {
+			return valueOf(name.trim().toUpperCase().replace('-', '_'));
+		}
+	}
+
+	/**
+	 * Constructor for the {@link Profile#DEFAULT} profile.
+	 */
+	public RepositoryConfigBuilder() {
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param profile the profile to apply
+	 */
+	public RepositoryConfigBuilder(Profile profile) {
+		applyProfile(profile);
+	}
+
+	/**
+	 * Applies the settings of the profile. Settings not defined by the profile
+	 * are left unchanged.
+	 *
+	 * @param profile the profile
+	 */
+	public void applyProfile(Profile profile) {
+		switch (profile) {
+			case WRITE_HEAVY:
+				bundleCacheSize = 64;
+				persistenceManagerParameters.put("derbyStoragePageSize", "16384");
+				persistenceManagerParameters.put("derbyStoragePageCacheSize", "2048");
+				dataStoreEnabled = true;
+				dataStoreMinRecordLength = 1024;
+				resultFetchSize = 50;
+				searchCacheSize = 1000;
+				extractorPoolSize = 4;
+				indexingConfigurationGenerator = new IndexingConfigurationGenerator();
+				break;
+			case READ_HEAVY:
+				bundleCacheSize = 256;
+				persistenceManagerParameters.put("derbyStoragePageCacheSize", "8192");
+				dataStoreEnabled = true;
+				dataStoreMinRecordLength = 16384;
+				resultFetchSize = 500;
+				searchCacheSize = 10000;
+				extractorPoolSize = 2;
+				break;
+			case LOW_MEMORY:
+				bundleCacheSize = 4;
+				persistenceManagerParameters.put("derbyStoragePageCacheSize", "256");
+				dataStoreEnabled = true;
+				dataStoreMinRecordLength = 100;
+				resultFetchSize = 20;
+				searchCacheSize = 100;
+				extractorPoolSize = 0;
+				indexingConfigurationGenerator = new IndexingConfigurationGenerator();
+				break;
+			case IN_MEMORY:
+				inMemory = true;
+				dataStoreEnabled = false;
+				extractorPoolSize = 0;
+				indexingConfigurationGenerator = new IndexingConfigurationGenerator();
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Creates the repository configuration XML. The paths are relative to the
+	 * <code>rep.home</code> and <code>wsp.home</code> variables.
+	 *
+	 * @return the XML
+	 */
+	public String toXml() {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\"?>\n");
+		xml.append("<Repository>\n");
+		appendFileSystem(xml, "\t", "${rep.home}/repository");
+		xml.append("\t<Security appName=\"Jackrabbit\">\n");
+		xml.append("\t\t<AccessManager class=\"org.apache.jackrabbit.core.security.simple.SimpleAccessManager\"/>\n");
+		xml.append("\t\t<LoginModule class=\"org.apache.jackrabbit.core.security.simple.SimpleLoginModule\">\n");
+		appendParam(xml, "\t\t\t", "anonymousId", "anonymous");
+		xml.append("\t\t</LoginModule>\n");
+		xml.append("\t</Security>\n");
+
+		if (inMemory) {
+			// keep the workspace configurations in the repository file system
+			xml.append("\t<Workspaces rootPath=\"${rep.home}/workspaces\" defaultWorkspace=\"default\" configRootPath=\"/workspaces\"/>\n");
+		} else {
+			xml.append("\t<Workspaces rootPath=\"${rep.home}/workspaces\" defaultWorkspace=\"default\"/>\n");
+		}
+
+		xml.append("\t<Workspace name=\"${wsp.name}\">\n");
+		appendFileSystem(xml, "\t\t", "${wsp.home}");
+		appendPersistenceManager(xml, "\t\t", "jdbc:derby:${wsp.home}/db;create=true", "${wsp.name}_");
+		appendSearchIndex(xml, "\t\t", "${wsp.home}/index", indexingConfigurationGenerator != null);
+		xml.append("\t</Workspace>\n");
+		xml.append("\t<Versioning rootPath=\"${rep.home}/version\">\n");
+		appendFileSystem(xml, "\t\t", "${rep.home}/version");
+		appendPersistenceManager(xml, "\t\t", "jdbc:derby:${rep.home}/version/db;create=true", "version_");
+		xml.append("\t</Versioning>\n");
+		appendSearchIndex(xml, "\t", "${rep.home}/repository/index", false);
+
+		if (dataStoreEnabled && !inMemory) {
+			xml.append("\t<DataStore class=\"org.apache.jackrabbit.core.data.FileDataStore\">\n");
+			appendParam(xml, "\t\t", "path", "${rep.home}/datastore");
+			appendParam(xml, "\t\t", "minRecordLength", dataStoreMinRecordLength);
+			xml.append("\t</DataStore>\n");
+		}
+
+		xml.append("</Repository>\n");
+
+		return xml.toString();
+	}
+
+	/**
+	 * Writes the repository configuration XML to the file
+	 * {@value #CONFIG_FILE_NAME} in the specified home directory. If an
+	 * indexing configuration generator is set, the indexing configuration
+	 * for the node types of the CND files is written to the file
+	 * {@value #INDEXING_CONFIG_FILE_NAME} as well.
+	 *
+	 * @param homeDir the repository home directory
+	 * @param cndFiles the paths of the CND files to generate the indexing configuration for
+	 * @return the path of the configuration file
+	 * @throws IOException if a file could not be read or written
+	 * @throws RepositoryException if a CND file could not be parsed
+	 */
+	public Path writeConfigFile(String homeDir, String... cndFiles) throws IOException, RepositoryException {
+		Path home = Paths.get(homeDir);
+		Files.createDirectories(home);
+
+		if (indexingConfigurationGenerator != null) {
+			Files.write(home.resolve(INDEXING_CONFIG_FILE_NAME), indexingConfigurationGenerator.generateFromFiles(cndFiles).getBytes(StandardCharsets.UTF_8));
+		}
+
+		Path configFile = home.resolve(CONFIG_FILE_NAME);
+		Files.write(configFile, toXml().getBytes(StandardCharsets.UTF_8));
+
+		return configFile;
+	}
+
+	private void appendFileSystem(StringBuilder xml, String indent, String path) {
+		if (inMemory) {
+			xml.append(indent).append("<FileSystem class=\"").append(MEMORY_FILE_SYSTEM).append("\"/>\n");
+		} else {
+			xml.append(indent).append("<FileSystem class=\"").append(LOCAL_FILE_SYSTEM).append("\">\n");
+			appendParam(xml, indent + '\t', "path", path);
+			xml.append(indent).append("</FileSystem>\n");
+		}
+	}
+
+	private void appendPersistenceManager(StringBuilder xml, String indent, String url, String schemaObjectPrefix) {
+		if (inMemory) {
+			xml.append(indent).append("<PersistenceManager class=\"").append(IN_MEMORY_PERSISTENCE_MANAGER).append("\">\n");
+			appendParam(xml, indent + '\t', "persistent", "false");
+			appendParam(xml, indent + '\t', "bundleCacheSize", bundleCacheSize);
+			xml.append(indent).append("</PersistenceManager>\n");
+			return;
+		}
+
+		xml.append(indent).append("<PersistenceManager class=\"").append(escape(persistenceManagerClass)).append("\">\n");
+		appendParam(xml, indent + '\t', "url", url);
+		appendParam(xml, indent + '\t', "schemaObjectPrefix", schemaObjectPrefix);
+		appendParam(xml, indent + '\t', "bundleCacheSize", bundleCacheSize);
+
+		for (Map.Entry<String, String> param : persistenceManagerParameters.entrySet()) {
+			appendParam(xml, indent + '\t', param.getKey(), param.getValue());
+		}
+
+		xml.append(indent).append("</PersistenceManager>\n");
+	}
+
+	private void appendSearchIndex(StringBuilder xml, String indent, String path, boolean indexingConfiguration) {
+		if (!searchIndexEnabled) {
+			return;
+		}
+
+		xml.append(indent).append("<SearchIndex class=\"org.apache.jackrabbit.core.query.lucene.SearchIndex\">\n");
+		appendParam(xml, indent + '\t', "path", path);
+
+		if (inMemory) {
+			appendParam(xml, indent + '\t', "directoryManagerClass", RAM_DIRECTORY_MANAGER);
+		}
+
+		if (indexingConfiguration) {
+			appendParam(xml, indent + '\t', "indexingConfiguration", "${rep.home}/" + INDEXING_CONFIG_FILE_NAME);
+		}
+
+		appendParam(xml, indent + '\t', "resultFetchSize", resultFetchSize);
+		appendParam(xml, indent + '\t', "cacheSize", searchCacheSize);
+		appendParam(xml, indent + '\t', "extractorPoolSize", extractorPoolSize);
+		xml.append(indent).append("</SearchIndex>\n");
+	}
+
+	private static void appendParam(StringBuilder xml, String indent, String name, int value) {
+		if (value >= 0) {
+			appendParam(xml, indent, name, Integer.toString(value));
+		}
+	}
+
+	private static void appendParam(StringBuilder xml, String indent, String name, String value) {
+		xml.append(indent).append("<param name=\"").append(escape(name)).append("\" value=\"").append(escape(value)).append("\"/>\n");
+	}
+
+	private static String escape(String value) {
+		return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+	/**
+	 * @return the persistence manager class
+	 */
+	public String getPersistenceManagerClass() {
+		return persistenceManagerClass;
+	}
+
+	/**
+	 * @param persistenceManagerClass the bundle persistence manager class accepting the <code>url</code> and <code>schemaObjectPrefix</code> parameters
+	 */
+	public void setPersistenceManagerClass(String persistenceManagerClass) {
+		this.persistenceManagerClass = persistenceManagerClass;
+	}
+
+	/**
+	 * Sets an additional parameter of the persistence manager, e.g.
+	 * <code>derbyStoragePageCacheSize</code>.
+	 *
+	 * @param name the parameter name
+	 * @param value the parameter value or null to remove the parameter
+	 */
+	public void setPersistenceManagerParameter(String name, String value) {
+		if (value == null) {
+			persistenceManagerParameters.remove(name);
+		} else {
+			persistenceManagerParameters.put(name, value);
+		}
+	}
+
+	/**
+	 * @return the bundle cache size in MB
+	 */
+	public int getBundleCacheSize() {
+		return bundleCacheSize;
+	}
+
+	/**
+	 * @param bundleCacheSize the bundle cache size in MB
+	 */
+	public void setBundleCacheSize(int bundleCacheSize) {
+		this.bundleCacheSize = bundleCacheSize;
+	}
+
+	/**
+	 * @return true if binaries are stored in a file data store
+	 */
+	public boolean isDataStoreEnabled() {
+		return dataStoreEnabled;
+	}
+
+	/**
+	 * @param dataStoreEnabled flag whether binaries are stored in a file data store
+	 */
+	public void setDataStoreEnabled(boolean dataStoreEnabled) {
+		this.dataStoreEnabled = dataStoreEnabled;
+	}
+
+	/**
+	 * @return the minimum size in bytes of binaries stored in the data store
+	 */
+	public int getDataStoreMinRecordLength() {
+		return dataStoreMinRecordLength;
+	}
+
+	/**
+	 * @param dataStoreMinRecordLength the minimum size in bytes of binaries stored in the data store
+	 */
+	public void setDataStoreMinRecordLength(int dataStoreMinRecordLength) {
+		this.dataStoreMinRecordLength = dataStoreMinRecordLength;
+	}
+
+	/**
+	 * @return the number of query results fetched at once
+	 */
+	public int getResultFetchSize() {
+		return resultFetchSize;
+	}
+
+	/**
+	 * @param resultFetchSize the number of query results fetched at once
+	 */
+	public void setResultFetchSize(int resultFetchSize) {
+		this.resultFetchSize = resultFetchSize;
+	}
+
+	/**
+	 * @return the size of the search index document number cache
+	 */
+	public int getSearchCacheSize() {
+		return searchCacheSize;
+	}
+
+	/**
+	 * @param searchCacheSize the size of the search index document number cache
+	 */
+	public void setSearchCacheSize(int searchCacheSize) {
+		this.searchCacheSize = searchCacheSize;
+	}
+
+	/**
+	 * @return the number of threads extracting text from binaries or 0 for synchronous extraction
+	 */
+	public int getExtractorPoolSize() {
+		return extractorPoolSize;
+	}
+
+	/**
+	 * @param extractorPoolSize the number of threads extracting text from binaries or 0 for synchronous extraction
+	 */
+	public void setExtractorPoolSize(int extractorPoolSize) {
+		this.extractorPoolSize = extractorPoolSize;
+	}
+
+	/**
+	 * @return true if all content is kept in memory
+	 */
+	public boolean isInMemory() {
+		return inMemory;
+	}
+
+	/**
+	 * @param inMemory flag whether all content is kept in memory and lost on shutdown
+	 */
+	public void setInMemory(boolean inMemory) {
+		this.inMemory = inMemory;
+	}
+
+	/**
+	 * @return true if the content is indexed for queries
+	 */
+	public boolean isSearchIndexEnabled() {
+		return searchIndexEnabled;
+	}
+
+	/**
+	 * @param searchIndexEnabled flag whether the content is indexed for queries, otherwise queries are not supported
+	 */
+	public void setSearchIndexEnabled(boolean searchIndexEnabled) {
+		this.searchIndexEnabled = searchIndexEnabled;
+	}
+
+	/**
+	 * @return the generator of the indexing configuration or null if all properties are indexed
+	 */
+	public IndexingConfigurationGenerator getIndexingConfigurationGenerator() {
+		return indexingConfigurationGenerator;
+	}
+
+	/**
+	 * @param indexingConfigurationGenerator the generator of the indexing configuration or null to index all properties
+	 */
+	public void setIndexingConfigurationGenerator(IndexingConfigurationGenerator indexingConfigurationGenerator) {
+		this.indexingConfigurationGenerator = indexingConfigurationGenerator;
+	}
+
+	/**
+	 * @return the identifier of this builder instance distinguishing in-memory repositories without home directory
+	 */
+	long getInstanceId() {
+		return instanceId;
+	}
+}
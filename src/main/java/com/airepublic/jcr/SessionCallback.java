@@ -0,0 +1,41 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * Unit of work executed with a pooled session by
+ * {@link JCRRepository#execute(SessionCallback)} or
+ * {@link JCRRepository#executeAsync(SessionCallback)}. The session must not be
+ * used after the callback has returned.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ *
+ * @param <T> the type of the result
+ */
+@FunctionalInterface
+public interface SessionCallback<T> {
+	/**
+	 * Executes the unit of work.
+	 *
+	 * @param session the session to use
+	 * @return the result
+	 * @throws RepositoryException if access to the repository failed
+	 */
+	T doInSession(Session session) throws RepositoryException;
+}
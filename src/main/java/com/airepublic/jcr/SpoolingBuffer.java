@@ -0,0 +1,180 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Output stream collecting the encoded content of a binary in memory until it
+ * exceeds a threshold and spooling it to a temporary file afterwards, so heap
+ * usage stays bounded regardless of the size of the content. The content can
+ * be read once by {@link #toInputStream()} without copying. Closing the buffer
+ * deletes the temporary file.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+class SpoolingBuffer extends OutputStream {
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private final int threshold;
+	private byte[] buf = new byte[8192];
+	private int count = 0;
+	private Path file;
+	private FileChannel channel;
+	private ByteBuffer chunk;
+	private long size = 0L;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param threshold the number of bytes kept in memory before the content is spooled to a file
+	 */
+	SpoolingBuffer(int threshold) {
+		this.threshold = threshold;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (channel == null && count + 1 > threshold) {
+			spool();
+		}
+
+		if (channel != null) {
+			if (!chunk.hasRemaining()) {
+				flushChunk();
+			}
+
+			chunk.put((byte) b);
+		} else {
+			ensureCapacity(count + 1);
+			buf[count] = (byte) b;
+			count++;
+		}
+
+		size++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (channel == null && count + len > threshold) {
+			spool();
+		}
+
+		if (channel != null) {
+			while (len > 0) {
+				if (!chunk.hasRemaining()) {
+					flushChunk();
+				}
+
+				int n = Math.min(len, chunk.remaining());
+				chunk.put(b, off, n);
+				off += n;
+				len -= n;
+				size += n;
+			}
+		} else {
+			ensureCapacity(count + len);
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+			size += len;
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(capacity, Math.min(buf.length * 2, threshold)));
+		}
+	}
+
+	/**
+	 * Moves the content collected in memory to a temporary file.
+	 */
+	private void spool() throws IOException {
+		file = Files.createTempFile("jcr-binary-", ".spool");
+		channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+		channel.write(ByteBuffer.wrap(buf, 0, count));
+		buf = null;
+		count = 0;
+	}
+
+	private void flushChunk() throws IOException {
+		chunk.flip();
+
+		while (chunk.hasRemaining()) {
+			channel.write(chunk);
+		}
+
+		chunk.clear();
+	}
+
+	/**
+	 * @return the number of bytes written
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * @return true if the content has been spooled to a temporary file
+	 */
+	boolean isSpooled() {
+		return channel != null;
+	}
+
+	/**
+	 * Creates a stream reading the content from the beginning. The stream is
+	 * only valid until the buffer is closed.
+	 *
+	 * @return the stream
+	 * @throws IOException if the spooled content could not be read
+	 */
+	InputStream toInputStream() throws IOException {
+		if (channel == null) {
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+
+		flushChunk();
+		channel.position(0L);
+
+		return Channels.newInputStream(channel);
+	}
+
+	/**
+	 * Deletes the temporary file if the content has been spooled.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			try {
+				channel.close();
+			} finally {
+				Files.deleteIfExists(file);
+				channel = null;
+				chunk = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,324 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.version.Version;
+import javax.jcr.version.VersionManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of {@link WorkflowModelGraph}s of versioned workflow models. Entries
+ * are keyed by the identifier of the model node and the identifier of a
+ * version and are loaded from the frozen node of that version, so they never
+ * change and need no invalidation. {@link #get(String)} returns the graph of
+ * the base version of a checked-in model and loads checked-out models, which
+ * might still change, without caching them. {@link #getVersion(String, String)}
+ * returns the graph of a historical version, which is looked up in the version
+ * history only on the first access.<br>
+ * The base versions of the checked-in models are remembered and updated by
+ * observation events of the session, so cache hits neither access the
+ * repository nor wait for the session while another thread is loading a
+ * model. A new base version is returned by {@link #get(String)} as soon as
+ * the observation event of the checkin, checkout or restore has been
+ * received.<br>
+ * All graphs are loaded with the session of the cache, so their payloads can
+ * be decoded as long as the cache is open. The least recently used entries
+ * are evicted when the cache is full.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class WorkflowModelCache implements EventListener, AutoCloseable {
+	private static final Logger LOG = LoggerFactory.getLogger(WorkflowModelCache.class);
+	private static final int EVENT_TYPES = Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED | Event.NODE_REMOVED;
+	private final Session session;
+	private final boolean ownsSession;
+	private final int maxEntries;
+	private final WorkflowModelLoader loader = new WorkflowModelLoader();
+	private final Map<String, WorkflowModelGraph> entries = new LinkedHashMap<String, WorkflowModelGraph>(16, 0.75f, true);
+	private final Map<String, String> versionIdentifiers = new LinkedHashMap<String, String>(16, 0.75f, true);
+	private final Map<String, String> baseVersionIdentifiers = new LinkedHashMap<String, String>(16, 0.75f, true);
+	private long generation = 0L;
+	private long hitCount = 0L;
+	private long missCount = 0L;
+	private long uncacheableCount = 0L;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param session the session to load the models with
+	 * @param maxEntries the maximum number of cached graphs
+	 * @throws RepositoryException if the event listener could not be registered
+	 */
+	public WorkflowModelCache(Session session, int maxEntries) throws RepositoryException {
+		this(session, maxEntries, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param session the session to load the models with
+	 * @param maxEntries the maximum number of cached graphs
+	 * @param ownsSession flag whether the session is logged out when the cache is closed
+	 * @throws RepositoryException if the event listener could not be registered
+	 */
+	WorkflowModelCache(Session session, int maxEntries, boolean ownsSession) throws RepositoryException {
+		this.session = session;
+		this.maxEntries = maxEntries;
+		this.ownsSession = ownsSession;
+		session.getWorkspace().getObservationManager().addEventListener(this, EVENT_TYPES, "/", true, null, null, false);
+	}
+
+	/**
+	 * Gets the graph of the current state of the model with the specified
+	 * identifier. For a checked-in model this is the graph of its base
+	 * version.
+	 *
+	 * @param identifier the identifier of the model node
+	 * @return the graph
+	 * @throws RepositoryException if the model could not be read
+	 */
+	public WorkflowModelGraph get(String identifier) throws RepositoryException {
+		long readGeneration;
+
+		synchronized (this) {
+			String versionIdentifier = baseVersionIdentifiers.get(identifier);
+			WorkflowModelGraph graph = versionIdentifier == null ? null : entries.get(identifier + '@' + versionIdentifier);
+
+			if (graph != null) {
+				hitCount++;
+				return graph;
+			}
+
+			readGeneration = generation;
+		}
+
+		synchronized (session) {
+			Node model = session.getNodeByIdentifier(identifier);
+
+			if (!model.isNodeType("mix:versionable") || model.isCheckedOut()) {
+				synchronized (this) {
+					uncacheableCount++;
+				}
+
+				return loader.load(model);
+			}
+
+			String versionIdentifier = model.getProperty("jcr:baseVersion").getString();
+			WorkflowModelGraph graph = lookup(identifier, versionIdentifier);
+
+			if (graph == null) {
+				Version version = (Version) session.getNodeByIdentifier(versionIdentifier);
+				graph = store(identifier, versionIdentifier, loader.load(version.getFrozenNode()));
+			}
+
+			synchronized (this) {
+				// do not remember a base version which might have changed while reading
+				if (readGeneration == generation) {
+					baseVersionIdentifiers.put(identifier, versionIdentifier);
+					evict(baseVersionIdentifiers);
+				}
+			}
+
+			return graph;
+		}
+	}
+
+	/**
+	 * Gets the graph of the version with the specified name of the model with
+	 * the specified identifier.
+	 *
+	 * @param identifier the identifier of the model node
+	 * @param versionName the name of the version, e.g. <code>1.0</code>
+	 * @return the graph
+	 * @throws RepositoryException if the version does not exist or could not be read
+	 */
+	public WorkflowModelGraph getVersion(String identifier, String versionName) throws RepositoryException {
+		String nameKey = identifier + '\n' + versionName;
+
+		synchronized (this) {
+			String versionIdentifier = versionIdentifiers.get(nameKey);
+			WorkflowModelGraph graph = versionIdentifier == null ? null : entries.get(identifier + '@' + versionIdentifier);
+
+			if (graph != null) {
+				hitCount++;
+				return graph;
+			}
+		}
+
+		synchronized (session) {
+			VersionManager versionManager = session.getWorkspace().getVersionManager();
+			Version version = versionManager.getVersionHistory(session.getNodeByIdentifier(identifier).getPath()).getVersion(versionName);
+			String versionIdentifier = version.getIdentifier();
+
+			synchronized (this) {
+				versionIdentifiers.put(nameKey, versionIdentifier);
+			}
+
+			WorkflowModelGraph graph = lookup(identifier, versionIdentifier);
+
+			if (graph == null) {
+				graph = store(identifier, versionIdentifier, loader.load(version.getFrozenNode()));
+			}
+
+			return graph;
+		}
+	}
+
+	private synchronized WorkflowModelGraph lookup(String identifier, String versionIdentifier) {
+		WorkflowModelGraph graph = entries.get(identifier + '@' + versionIdentifier);
+
+		if (graph != null) {
+			hitCount++;
+		} else {
+			missCount++;
+		}
+
+		return graph;
+	}
+
+	private synchronized WorkflowModelGraph store(String identifier, String versionIdentifier, WorkflowModelGraph graph) {
+		entries.put(identifier + '@' + versionIdentifier, graph);
+		evict(entries);
+		evict(versionIdentifiers);
+
+		return graph;
+	}
+
+	@Override
+	public void onEvent(EventIterator events) {
+		while (events.hasNext()) {
+			Event event = events.nextEvent();
+
+			try {
+				String path = event.getPath();
+
+				// the base version changes on checkin, checkout and restore
+				if (event.getType() == Event.NODE_REMOVED || path.endsWith("/jcr:baseVersion") || path.endsWith("/jcr:isCheckedOut")) {
+					forgetBaseVersion(event.getIdentifier());
+				}
+			} catch (RepositoryException e) {
+				LOG.warn("Error processing event - forgetting all base versions!", e);
+				forgetBaseVersions();
+			}
+		}
+	}
+
+	private synchronized void forgetBaseVersion(String identifier) {
+		generation++;
+		baseVersionIdentifiers.remove(identifier);
+	}
+
+	private synchronized void forgetBaseVersions() {
+		generation++;
+		baseVersionIdentifiers.clear();
+	}
+
+	private void evict(Map<String, ?> map) {
+		Iterator<String> it = map.keySet().iterator();
+
+		while (map.size() > maxEntries && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Removes all cached graphs of the model with the specified identifier,
+	 * e.g. after versions have been removed from its version history.
+	 *
+	 * @param identifier the identifier of the model node
+	 */
+	public synchronized void invalidate(String identifier) {
+		entries.keySet().removeIf(key -> key.startsWith(identifier + '@'));
+		versionIdentifiers.keySet().removeIf(key -> key.startsWith(identifier + '\n'));
+		forgetBaseVersion(identifier);
+	}
+
+	/**
+	 * Removes all cached graphs.
+	 */
+	public synchronized void invalidateAll() {
+		entries.clear();
+		versionIdentifiers.clear();
+		forgetBaseVersions();
+	}
+
+	/**
+	 * Unregisters the event listener, clears the cache and logs out the
+	 * session if it is owned by the cache.
+	 */
+	@Override
+	public void close() {
+		try {
+			session.getWorkspace().getObservationManager().removeEventListener(this);
+		} catch (RepositoryException e) {
+			LOG.warn("Error removing event listener of workflow model cache!", e);
+		}
+
+		invalidateAll();
+
+		if (ownsSession) {
+			session.logout();
+		}
+	}
+
+	/**
+	 * @return the number of cached graphs
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the maximum number of cached graphs
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @return the number of cache hits
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of cache misses
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of checked-out models which were loaded without caching
+	 */
+	public synchronized long getUncacheableCount() {
+		return uncacheableCount;
+	}
+}
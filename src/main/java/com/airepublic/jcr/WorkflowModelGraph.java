@@ -0,0 +1,493 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * Immutable in-memory graph of an <code>ai:WorkflowModel</code> as loaded by
+ * {@link WorkflowModelLoader}. Steps and artifacts are identified by the
+ * identifiers of their nodes and the links reference them directly, so the
+ * graph can be navigated without accessing the repository. Only the BINARY
+ * <code>function</code> and <code>content</code> properties are decoded on
+ * first access by their {@link Payload}, which requires the session used to
+ * load the graph to be still alive.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class WorkflowModelGraph {
+	private final String identifier;
+	private final String path;
+	private final String description;
+	private final Map<String, Step> steps;
+	private final Map<String, Artifact> artifacts;
+	private final List<Link<Step>> stepLinks;
+	private final List<Link<Artifact>> artifactLinks;
+	private final Map<Step, List<Link<Step>>> outgoingStepLinks = new HashMap<Step, List<Link<Step>>>();
+	private final Map<Step, List<Link<Step>>> incomingStepLinks = new HashMap<Step, List<Link<Step>>>();
+	private final Map<Artifact, List<Link<Artifact>>> outgoingArtifactLinks = new HashMap<Artifact, List<Link<Artifact>>>();
+	private final Map<Artifact, List<Link<Artifact>>> incomingArtifactLinks = new HashMap<Artifact, List<Link<Artifact>>>();
+	private final List<Step> startSteps = new ArrayList<Step>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param identifier the identifier of the model node
+	 * @param path the path of the model node
+	 * @param description the description or null
+	 * @param steps the steps
+	 * @param artifacts the artifacts
+	 * @param stepLinks the links between steps
+	 * @param artifactLinks the links between artifacts
+	 */
+	WorkflowModelGraph(String identifier, String path, String description, List<Step> steps, List<Artifact> artifacts, List<Link<Step>> stepLinks, List<Link<Artifact>> artifactLinks) {
+		this.identifier = identifier;
+		this.path = path;
+		this.description = description;
+		this.steps = index(steps);
+		this.artifacts = index(artifacts);
+		this.stepLinks = Collections.unmodifiableList(new ArrayList<Link<Step>>(stepLinks));
+		this.artifactLinks = Collections.unmodifiableList(new ArrayList<Link<Artifact>>(artifactLinks));
+
+		for (Step step : steps) {
+			if (step.isStart()) {
+				startSteps.add(step);
+			}
+		}
+
+		for (Link<Step> link : stepLinks) {
+			outgoingStepLinks.computeIfAbsent(link.getSource(), s -> new ArrayList<Link<Step>>()).add(link);
+			incomingStepLinks.computeIfAbsent(link.getDestination(), s -> new ArrayList<Link<Step>>()).add(link);
+		}
+
+		for (Link<Artifact> link : artifactLinks) {
+			outgoingArtifactLinks.computeIfAbsent(link.getSource(), a -> new ArrayList<Link<Artifact>>()).add(link);
+			incomingArtifactLinks.computeIfAbsent(link.getDestination(), a -> new ArrayList<Link<Artifact>>()).add(link);
+		}
+	}
+
+	private static <T extends Element> Map<String, T> index(List<T> elements) {
+		Map<String, T> map = new LinkedHashMap<String, T>();
+
+		for (T element : elements) {
+			map.put(element.getIdentifier(), element);
+		}
+
+		return Collections.unmodifiableMap(map);
+	}
+
+	private static <T> List<T> linksOf(Map<?, List<T>> links, Object element) {
+		List<T> list = links.get(element);
+		return list == null ? Collections.<T>emptyList() : Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @return the identifier of the model node
+	 */
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * @return the path of the model node
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the description or null
+	 */
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * @return the steps in document order
+	 */
+	public List<Step> getSteps() {
+		return Collections.unmodifiableList(new ArrayList<Step>(steps.values()));
+	}
+
+	/**
+	 * @param identifier the identifier of the step node
+	 * @return the step or null if the model contains no such step
+	 */
+	public Step getStep(String identifier) {
+		return steps.get(identifier);
+	}
+
+	/**
+	 * @return the steps flagged with <code>isStart</code>
+	 */
+	public List<Step> getStartSteps() {
+		return Collections.unmodifiableList(startSteps);
+	}
+
+	/**
+	 * @return the artifacts in document order
+	 */
+	public List<Artifact> getArtifacts() {
+		return Collections.unmodifiableList(new ArrayList<Artifact>(artifacts.values()));
+	}
+
+	/**
+	 * @param identifier the identifier of the artifact node
+	 * @return the artifact or null if the model contains no such artifact
+	 */
+	public Artifact getArtifact(String identifier) {
+		return artifacts.get(identifier);
+	}
+
+	/**
+	 * @return all links between steps
+	 */
+	public List<Link<Step>> getStepLinks() {
+		return stepLinks;
+	}
+
+	/**
+	 * @return all links between artifacts
+	 */
+	public List<Link<Artifact>> getArtifactLinks() {
+		return artifactLinks;
+	}
+
+	/**
+	 * @param step the step
+	 * @return the links starting at the step
+	 */
+	public List<Link<Step>> getOutgoingLinks(Step step) {
+		return linksOf(outgoingStepLinks, step);
+	}
+
+	/**
+	 * @param step the step
+	 * @return the links ending at the step
+	 */
+	public List<Link<Step>> getIncomingLinks(Step step) {
+		return linksOf(incomingStepLinks, step);
+	}
+
+	/**
+	 * @param artifact the artifact
+	 * @return the links starting at the artifact
+	 */
+	public List<Link<Artifact>> getOutgoingLinks(Artifact artifact) {
+		return linksOf(outgoingArtifactLinks, artifact);
+	}
+
+	/**
+	 * @param artifact the artifact
+	 * @return the links ending at the artifact
+	 */
+	public List<Link<Artifact>> getIncomingLinks(Artifact artifact) {
+		return linksOf(incomingArtifactLinks, artifact);
+	}
+
+	/**
+	 * Common part of steps and artifacts.
+	 */
+	public abstract static class Element {
+		private final String identifier;
+		private final String category;
+		private final String name;
+		private final String position;
+
+		Element(String identifier, String category, String name, String position) {
+			this.identifier = identifier;
+			this.category = category;
+			this.name = name;
+			this.position = position;
+		}
+
+		/**
+		 * @return the identifier of the node
+		 */
+		public String getIdentifier() {
+			return identifier;
+		}
+
+		/**
+		 * @return the path of the categories relative to the steps or artifacts node or an empty string
+		 */
+		public String getCategory() {
+			return category;
+		}
+
+		/**
+		 * @return the name or null
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the position in the editor as <code>x,y,width,height</code> or null
+		 */
+		public String getPosition() {
+			return position;
+		}
+
+		@Override
+		public String toString() {
+			return getClass().getSimpleName() + "[" + identifier + ", " + name + "]";
+		}
+	}
+
+	/**
+	 * A workflow step.
+	 */
+	public static final class Step extends Element {
+		private final boolean start;
+		private final Payload function;
+
+		Step(String identifier, String category, String name, String position, boolean start, Payload function) {
+			super(identifier, category, name, position);
+			this.start = start;
+			this.function = function;
+		}
+
+		/**
+		 * @return true if the workflow starts at this step
+		 */
+		public boolean isStart() {
+			return start;
+		}
+
+		/**
+		 * @return the function or null if the step has none
+		 */
+		public Payload getFunction() {
+			return function;
+		}
+	}
+
+	/**
+	 * A workflow artifact.
+	 */
+	public static final class Artifact extends Element {
+		private final Payload content;
+		private final List<Action> actions;
+
+		Artifact(String identifier, String category, String name, String position, Payload content, List<Action> actions) {
+			super(identifier, category, name, position);
+			this.content = content;
+			this.actions = Collections.unmodifiableList(new ArrayList<Action>(actions));
+		}
+
+		/**
+		 * @return the content or null if the artifact has none
+		 */
+		public Payload getContent() {
+			return content;
+		}
+
+		/**
+		 * @return the actions of the artifact
+		 */
+		public List<Action> getActions() {
+			return actions;
+		}
+	}
+
+	/**
+	 * A period in which an action on an artifact is performed.
+	 */
+	public static final class Action {
+		private final String name;
+		private final Instant fromDate;
+		private final Instant toDate;
+
+		Action(String name, Instant fromDate, Instant toDate) {
+			this.name = name;
+			this.fromDate = fromDate;
+			this.toDate = toDate;
+		}
+
+		/**
+		 * @return the node name of the action
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the start of the action or null
+		 */
+		public Instant getFromDate() {
+			return fromDate;
+		}
+
+		/**
+		 * @return the end of the action or null
+		 */
+		public Instant getToDate() {
+			return toDate;
+		}
+	}
+
+	/**
+	 * A directed link between two steps or two artifacts.
+	 *
+	 * @param <T> the type of the linked elements
+	 */
+	public static final class Link<T extends Element> {
+		private final String name;
+		private final T source;
+		private final T destination;
+		private final Condition condition;
+
+		Link(String name, T source, T destination, Condition condition) {
+			this.name = name;
+			this.source = source;
+			this.destination = destination;
+			this.condition = condition;
+		}
+
+		/**
+		 * @return the name or null
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the source element
+		 */
+		public T getSource() {
+			return source;
+		}
+
+		/**
+		 * @return the destination element
+		 */
+		public T getDestination() {
+			return destination;
+		}
+
+		/**
+		 * @return the condition of a step link or null if the link is unconditional
+		 */
+		public Condition getCondition() {
+			return condition;
+		}
+
+		@Override
+		public String toString() {
+			return "Link[" + source + " -> " + destination + "]";
+		}
+	}
+
+	/**
+	 * A condition of a step link with its nested conditions.
+	 */
+	public static final class Condition {
+		private final String className;
+		private final List<Condition> conditions;
+
+		Condition(String className, List<Condition> conditions) {
+			this.className = className;
+			this.conditions = Collections.unmodifiableList(new ArrayList<Condition>(conditions));
+		}
+
+		/**
+		 * @return the class implementing the condition or null
+		 */
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * @return the nested conditions
+		 */
+		public List<Condition> getConditions() {
+			return conditions;
+		}
+	}
+
+	/**
+	 * A BINARY property which is decoded by
+	 * {@link JCRHelper#createObject(Session, Binary)} on first access. The
+	 * decoded object is kept, so it is only decoded once. Decoding locks the
+	 * session, which is not thread-safe and might be shared with other
+	 * graphs.
+	 */
+	public static final class Payload {
+		private final Session session;
+		private final Binary binary;
+		private volatile Object value;
+		private volatile boolean decoded;
+
+		Payload(Session session, Binary binary) {
+			this.session = session;
+			this.binary = binary;
+		}
+
+		/**
+		 * Gets the decoded object. The session used to load the graph must
+		 * still be alive on first access.
+		 *
+		 * @return the decoded object
+		 * @throws RepositoryException if the binary could not be read or decoded
+		 */
+		public Object get() throws RepositoryException {
+			if (!decoded) {
+				synchronized (this) {
+					if (!decoded) {
+						synchronized (session) {
+							try {
+								value = JCRHelper.createObject(session, binary);
+							} catch (IOException e) {
+								throw new RepositoryException("Error decoding workflow payload!", e);
+							}
+						}
+
+						decoded = true;
+					}
+				}
+			}
+
+			return value;
+		}
+
+		/**
+		 * @return the encoded size in bytes
+		 * @throws RepositoryException if the size could not be read
+		 */
+		public long getSize() throws RepositoryException {
+			return binary.getSize();
+		}
+
+		/**
+		 * @return true if the object has already been decoded
+		 */
+		public boolean isDecoded() {
+			return decoded;
+		}
+	}
+}
@@ -0,0 +1,291 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import com.airepublic.jcr.WorkflowModelGraph.Action;
+import com.airepublic.jcr.WorkflowModelGraph.Artifact;
+import com.airepublic.jcr.WorkflowModelGraph.Condition;
+import com.airepublic.jcr.WorkflowModelGraph.Element;
+import com.airepublic.jcr.WorkflowModelGraph.Link;
+import com.airepublic.jcr.WorkflowModelGraph.Payload;
+import com.airepublic.jcr.WorkflowModelGraph.Step;
+
+/**
+ * Loads the subtree of an <code>ai:WorkflowModel</code> node in a single
+ * breadth-first pass into a {@link WorkflowModelGraph}. Every node is read
+ * once and its properties are read in one iteration, the REFERENCE properties
+ * of the links are resolved against the loaded steps and artifacts instead of
+ * the repository and the BINARY properties are only decoded on access.<br>
+ * The model node can also be the frozen node of a version of the model. The
+ * node types and identifiers of frozen nodes are then taken from
+ * <code>jcr:frozenPrimaryType</code> and <code>jcr:frozenUuid</code>, so the
+ * references of the links resolve as in the original model.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class WorkflowModelLoader {
+	public static final String WORKFLOW_MODEL = "ai:WorkflowModel";
+	private static final String STEP = "ai:WorkflowStep";
+	private static final String ARTIFACT = "ai:WorkflowArtifact";
+	private static final String STEP_LINK = "ai:WorkflowStepLink";
+	private static final String ARTIFACT_LINK = "ai:WorkflowArtifactLink";
+	private static final String CONDITION = "ai:WorkflowCondition";
+	private static final String ACTION = "ai:WorkflowAction";
+	private static final String FROZEN_NODE = "nt:frozenNode";
+
+	/**
+	 * Loads the model with the specified path.
+	 *
+	 * @param session the session to read the model with
+	 * @param path the absolute path of the model node or its frozen node
+	 * @return the graph
+	 * @throws RepositoryException if the model could not be read or is inconsistent
+	 */
+	public WorkflowModelGraph load(Session session, String path) throws RepositoryException {
+		return load(session.getNode(path));
+	}
+
+	/**
+	 * Loads the model of the specified node.
+	 *
+	 * @param model the model node or its frozen node
+	 * @return the graph
+	 * @throws RepositoryException if the model could not be read or is inconsistent
+	 */
+	public WorkflowModelGraph load(Node model) throws RepositoryException {
+		if (!WORKFLOW_MODEL.equals(typeOf(model))) {
+			throw new RepositoryException("Node is not a workflow model: " + model.getPath());
+		}
+
+		Session session = model.getSession();
+		List<Step> steps = new ArrayList<Step>();
+		List<Artifact> artifacts = new ArrayList<Artifact>();
+		List<PendingLink> pendingLinks = new ArrayList<PendingLink>();
+		Map<String, Element> elements = new HashMap<String, Element>();
+		String description = null;
+		Deque<PendingNode> queue = new ArrayDeque<PendingNode>();
+		queue.add(new PendingNode(model, null));
+
+		while (!queue.isEmpty()) {
+			PendingNode pending = queue.poll();
+			Node node = pending.node;
+			String type = typeOf(node);
+			Map<String, Property> properties = properties(node);
+
+			switch (type) {
+				case WORKFLOW_MODEL:
+					description = string(properties, "description");
+					enqueueChildren(queue, node, null);
+					break;
+				case STEP:
+					Step step = new Step(identifierOf(node), pending.category, string(properties, "name"), string(properties, "position"), properties.containsKey("isStart") && properties.get("isStart").getBoolean(), payload(session, properties, "function"));
+					steps.add(step);
+					elements.put(step.getIdentifier(), step);
+					break;
+				case ARTIFACT:
+					Artifact artifact = new Artifact(identifierOf(node), pending.category, string(properties, "name"), string(properties, "position"), payload(session, properties, "content"), readActions(node));
+					artifacts.add(artifact);
+					elements.put(artifact.getIdentifier(), artifact);
+					break;
+				case STEP_LINK:
+				case ARTIFACT_LINK:
+					Condition condition = STEP_LINK.equals(type) && node.hasNode(CONDITION) ? readCondition(node.getNode(CONDITION)) : null;
+					pendingLinks.add(new PendingLink(STEP_LINK.equals(type), node.getPath(), string(properties, "name"), string(properties, "source"), string(properties, "destination"), condition));
+					break;
+				case "ai:WorkflowStepCategory":
+				case "ai:WorkflowArtifactCategory":
+					enqueueChildren(queue, node, pending.category == null || pending.category.isEmpty() ? node.getName() : pending.category + "/" + node.getName());
+					break;
+				case "ai:WorkflowSteps":
+				case "ai:WorkflowArtifacts":
+				case "ai:WorkflowStepLinks":
+				case "ai:WorkflowArtifactLinks":
+					enqueueChildren(queue, node, "");
+					break;
+				default:
+					// other children of the model like folders are not part of the graph
+					break;
+			}
+		}
+
+		List<Link<Step>> stepLinks = new ArrayList<Link<Step>>();
+		List<Link<Artifact>> artifactLinks = new ArrayList<Link<Artifact>>();
+
+		for (PendingLink link : pendingLinks) {
+			if (link.stepLink) {
+				stepLinks.add(new Link<Step>(link.name, resolve(elements, link.source, Step.class, link), resolve(elements, link.destination, Step.class, link), link.condition));
+			} else {
+				artifactLinks.add(new Link<Artifact>(link.name, resolve(elements, link.source, Artifact.class, link), resolve(elements, link.destination, Artifact.class, link), null));
+			}
+		}
+
+		return new WorkflowModelGraph(identifierOf(model), model.getPath(), description, steps, artifacts, stepLinks, artifactLinks);
+	}
+
+	private static void enqueueChildren(Deque<PendingNode> queue, Node node, String category) throws RepositoryException {
+		NodeIterator it = node.getNodes();
+
+		while (it.hasNext()) {
+			queue.add(new PendingNode(it.nextNode(), category));
+		}
+	}
+
+	private static List<Action> readActions(Node artifact) throws RepositoryException {
+		List<Action> actions = new ArrayList<Action>();
+		NodeIterator it = artifact.getNodes();
+
+		while (it.hasNext()) {
+			Node node = it.nextNode();
+
+			if (ACTION.equals(typeOf(node))) {
+				Map<String, Property> properties = properties(node);
+				actions.add(new Action(node.getName(), instant(properties, "fromDate"), instant(properties, "toDate")));
+			}
+		}
+
+		return actions;
+	}
+
+	private static Condition readCondition(Node node) throws RepositoryException {
+		List<Condition> conditions = new ArrayList<Condition>();
+		NodeIterator it = node.getNodes();
+
+		while (it.hasNext()) {
+			Node child = it.nextNode();
+
+			if (CONDITION.equals(typeOf(child))) {
+				conditions.add(readCondition(child));
+			}
+		}
+
+		return new Condition(string(properties(node), "class"), conditions);
+	}
+
+	private static <T extends Element> T resolve(Map<String, Element> elements, String identifier, Class<T> type, PendingLink link) throws RepositoryException {
+		Element element = identifier == null ? null : elements.get(identifier);
+
+		if (!type.isInstance(element)) {
+			throw new RepositoryException("Link references no " + type.getSimpleName().toLowerCase() + " of the model: " + link.path + " -> " + identifier);
+		}
+
+		return type.cast(element);
+	}
+
+	/**
+	 * Reads all properties of the node in one iteration.
+	 */
+	private static Map<String, Property> properties(Node node) throws RepositoryException {
+		Map<String, Property> properties = new HashMap<String, Property>();
+		PropertyIterator it = node.getProperties();
+
+		while (it.hasNext()) {
+			Property p = it.nextProperty();
+			properties.put(p.getName(), p);
+		}
+
+		return properties;
+	}
+
+	private static String string(Map<String, Property> properties, String name) throws RepositoryException {
+		Property p = properties.get(name);
+		return p == null ? null : p.getString();
+	}
+
+	private static Instant instant(Map<String, Property> properties, String name) throws RepositoryException {
+		Property p = properties.get(name);
+		return p == null ? null : p.getDate().toInstant();
+	}
+
+	private static Payload payload(Session session, Map<String, Property> properties, String name) throws RepositoryException {
+		Property p = properties.get(name);
+		return p == null ? null : new Payload(session, p.getBinary());
+	}
+
+	/**
+	 * Gets the node type of the node or of the node a frozen node was created
+	 * from.
+	 */
+	private static String typeOf(Node node) throws RepositoryException {
+		String type = node.getPrimaryNodeType().getName();
+
+		if (FROZEN_NODE.equals(type) && node.hasProperty("jcr:frozenPrimaryType")) {
+			return node.getProperty("jcr:frozenPrimaryType").getString();
+		}
+
+		return type;
+	}
+
+	/**
+	 * Gets the identifier of the node or of the node a frozen node was created
+	 * from.
+	 */
+	private static String identifierOf(Node node) throws RepositoryException {
+		if (node.hasProperty("jcr:frozenUuid")) {
+			return node.getProperty("jcr:frozenUuid").getString();
+		}
+
+		return node.getIdentifier();
+	}
+
+	/**
+	 * A node waiting to be read with the category path of its parent.
+	 */
+	private static class PendingNode {
+		private final Node node;
+		private final String category;
+
+		private PendingNode(Node node, String category) {
+			this.node = node;
+			this.category = category;
+		}
+	}
+
+	/**
+	 * A link whose references have not been resolved yet.
+	 */
+	private static class PendingLink {
+		private final boolean stepLink;
+		private final String path;
+		private final String name;
+		private final String source;
+		private final String destination;
+		private final Condition condition;
+
+		private PendingLink(boolean stepLink, String path, String name, String source, String destination, Condition condition) {
+			this.stepLink = stepLink;
+			this.path = path;
+			this.name = name;
+			this.source = source;
+			this.destination = destination;
+			this.condition = condition;
+		}
+	}
+}
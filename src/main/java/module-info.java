@@ -8,10 +8,15 @@
 module jcr.util {
     exports com.airepublic.jcr;
 
+    requires cdi.api;
     requires jackrabbit.core;
     requires jackrabbit.jcr.commons;
+    requires java.management;
     requires java.naming;
+    requires javax.annotation.api;
     requires javax.inject;
     requires jcr;
     requires org.slf4j;
+
+    uses com.airepublic.jcr.BinaryCodec;
 }
\ No newline at end of file
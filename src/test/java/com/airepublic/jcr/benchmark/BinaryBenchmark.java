@@ -0,0 +1,85 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Binary;
+import javax.jcr.Session;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.airepublic.jcr.JCRHelper;
+
+/**
+ * Benchmarks encoding objects to and decoding objects from binaries with
+ * {@link JCRHelper#createBinary(Session, java.io.Serializable)} and
+ * {@link JCRHelper#createObject(Binary)} for several payload sizes.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinaryBenchmark {
+	@Param({ "128", "16384", "1048576" })
+	private int payloadSize;
+
+	private Session session;
+	private byte[] payload;
+	private Binary binary;
+
+	@Setup(Level.Trial)
+	public void setup(RepositoryState state) throws Exception {
+		session = state.getSession();
+		payload = new byte[payloadSize];
+		new Random(4711).nextBytes(payload);
+		binary = JCRHelper.createBinary(session, payload);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		binary.dispose();
+	}
+
+	@Benchmark
+	public Binary createBinary() throws Exception {
+		Binary result = JCRHelper.createBinary(session, payload);
+		result.dispose();
+		return result;
+	}
+
+	@Benchmark
+	public Object createObject() throws Exception {
+		return JCRHelper.createObject(binary);
+	}
+}
@@ -0,0 +1,120 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr.benchmark;
+
+import java.math.BigDecimal;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.airepublic.jcr.JCRHelper;
+
+/**
+ * Benchmarks reading and writing single properties of each property type and
+ * property maps with {@link JCRHelper}.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JCRHelperBenchmark {
+	private static final String PREFIX = "bench_";
+
+	@Param({ "STRING", "LONG", "DOUBLE", "BOOLEAN", "DECIMAL", "DATE", "BINARY" })
+	private String propertyType;
+
+	@Param({ "20" })
+	private int propertyCount;
+
+	private Node node;
+	private Comparable<?> value;
+	private Map<String, Comparable<?>> properties;
+
+	@Setup(Level.Trial)
+	public void setup(RepositoryState state) throws Exception {
+		node = state.getRoot().addNode("helper-" + propertyType + "-" + UUID.randomUUID());
+		value = createValue(propertyType);
+		properties = new LinkedHashMap<String, Comparable<?>>();
+
+		for (int i = 0; i < propertyCount; i++) {
+			properties.put("p" + i, value);
+		}
+
+		JCRHelper.setProperty(node, "value", value);
+		JCRHelper.setProperties(node, PREFIX, properties);
+	}
+
+	private static Comparable<?> createValue(String propertyType) {
+		switch (propertyType) {
+		case "STRING":
+			return "The quick brown fox jumps over the lazy dog";
+		case "LONG":
+			return 4711L;
+		case "DOUBLE":
+			return 47.11d;
+		case "BOOLEAN":
+			return Boolean.TRUE;
+		case "DECIMAL":
+			return new BigDecimal("4711.0815");
+		case "DATE":
+			return Calendar.getInstance();
+		default:
+			return UUID.randomUUID();
+		}
+	}
+
+	@Benchmark
+	public Comparable<?> getProperty() throws Exception {
+		return JCRHelper.getProperty(node, "value");
+	}
+
+	@Benchmark
+	public void setPropertyAndSave() throws Exception {
+		JCRHelper.setProperty(node, "value", value);
+		node.getSession().save();
+	}
+
+	@Benchmark
+	public void setProperties() throws Exception {
+		JCRHelper.setProperties(node, PREFIX, properties);
+	}
+
+	@Benchmark
+	public Map<String, Comparable<?>> getProperties() throws Exception {
+		return JCRHelper.getProperties(node, PREFIX);
+	}
+}
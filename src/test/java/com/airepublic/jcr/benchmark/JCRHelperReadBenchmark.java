@@ -0,0 +1,116 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr.benchmark;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.airepublic.jcr.JCRHelper;
+
+/**
+ * Benchmarks reading single properties and property maps with
+ * {@link JCRHelper} of the property types which {@link JCRHelper} reads but
+ * does not write. The properties are written with the typed JCR API.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JCRHelperReadBenchmark {
+	private static final String PREFIX = "bench_";
+
+	@Param({ "NAME", "PATH", "URI", "REFERENCE" })
+	private String propertyType;
+
+	@Param({ "20" })
+	private int propertyCount;
+
+	private Node node;
+
+	@Setup(Level.Trial)
+	public void setup(RepositoryState state) throws Exception {
+		Node target = state.getRoot().addNode("target-" + UUID.randomUUID());
+		target.addMixin("mix:referenceable");
+		node = state.getRoot().addNode("read-" + propertyType + "-" + UUID.randomUUID());
+		int type = typeOf(propertyType);
+		String value = createValue(type, target);
+
+		node.setProperty("value", value, type);
+
+		for (int i = 0; i < propertyCount; i++) {
+			node.setProperty(PREFIX + "p" + i, value, type);
+		}
+
+		state.getSession().save();
+	}
+
+	private static int typeOf(String propertyType) {
+		switch (propertyType) {
+		case "NAME":
+			return PropertyType.NAME;
+		case "PATH":
+			return PropertyType.PATH;
+		case "URI":
+			return PropertyType.URI;
+		default:
+			return PropertyType.REFERENCE;
+		}
+	}
+
+	private static String createValue(int type, Node target) throws Exception {
+		switch (type) {
+		case PropertyType.NAME:
+			return "nt:unstructured";
+		case PropertyType.PATH:
+			return target.getPath();
+		case PropertyType.URI:
+			return "http://www.ai-republic.com/jcr-util/benchmark";
+		default:
+			return target.getIdentifier();
+		}
+	}
+
+	@Benchmark
+	public Comparable<?> getProperty() throws Exception {
+		return JCRHelper.getProperty(node, "value");
+	}
+
+	@Benchmark
+	public Map<String, Comparable<?>> getProperties() throws Exception {
+		return JCRHelper.getProperties(node, PREFIX);
+	}
+}
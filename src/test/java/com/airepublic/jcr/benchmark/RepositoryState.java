@@ -0,0 +1,107 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.airepublic.jcr.JCRConfiguration;
+import com.airepublic.jcr.JCRRepository;
+
+/**
+ * Benchmark state starting a local repository from the test
+ * <code>repository.xml</code> and <code>nodetypes.cnd</code> in a temporary
+ * directory. The directory of the test resources is read from the system
+ * property <code>jcr.test.resources</code>.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+@State(Scope.Benchmark)
+public class RepositoryState {
+	private Path homeDir;
+	private JCRRepository repository;
+	private Session session;
+	private Node root;
+
+	@Setup(Level.Trial)
+	public void startRepository() throws Exception {
+		Path resources = Paths.get(System.getProperty("jcr.test.resources", "src/test/resources"));
+		homeDir = Files.createTempDirectory("jcr-benchmark");
+		Path configFile = Files.copy(resources.resolve("repository.xml"), homeDir.resolve("repository.xml"), StandardCopyOption.REPLACE_EXISTING);
+		Path cndFile = Files.copy(resources.resolve("nodetypes.cnd"), homeDir.resolve("nodetypes.cnd"), StandardCopyOption.REPLACE_EXISTING);
+
+		Map<String, String> config = new HashMap<String, String>();
+		config.put("configFile", configFile.toString());
+		config.put("homeDir", homeDir.resolve("repository").toString());
+		config.put("repositoryName", "benchmark");
+		config.put("user", "admin");
+		config.put("password", "admin");
+		config.put("cndFile", cndFile.toString());
+
+		repository = new JCRRepository(new JCRConfiguration(config));
+		session = repository.createSession();
+		root = session.getRootNode().addNode("benchmark");
+		session.save();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopRepository() throws IOException {
+		session.logout();
+		// releases the repository through the registry, which shuts it down with its last user
+		repository.shutdown();
+
+		try (Stream<Path> files = Files.walk(homeDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	/**
+	 * @return the repository
+	 */
+	public JCRRepository getRepository() {
+		return repository;
+	}
+
+	/**
+	 * @return the session used by the benchmarks
+	 */
+	public Session getSession() {
+		return session;
+	}
+
+	/**
+	 * @return the node below which the benchmarks create their content
+	 */
+	public Node getRoot() {
+		return root;
+	}
+}
@@ -0,0 +1,62 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.jcr.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Session;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.airepublic.jcr.JCRRepository;
+import com.airepublic.jcr.PooledSession;
+
+/**
+ * Benchmarks the login cost of {@link JCRRepository#createSession()} compared
+ * to borrowing a session from the session pool.<br>
+ * <br>
+ * (c) Copyright 2014 by ai-republic GmbH, Germany
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionBenchmark {
+	@Benchmark
+	public String createSession(RepositoryState state) throws Exception {
+		Session session = state.getRepository().createSession();
+
+		try {
+			return session.getUserID();
+		} finally {
+			session.logout();
+		}
+	}
+
+	@Benchmark
+	public String borrowSession(RepositoryState state) throws Exception {
+		try (PooledSession lease = state.getRepository().borrowSession()) {
+			return lease.getSession().getUserID();
+		}
+	}
+}